@@ -10,6 +10,12 @@ public abstract class BaseTokenImpl implements BaseToken {
 
     private int row;
     private int col;
+    /**
+     * Line beginnings of the source and offset of the token within it, set instead of row and
+     * column until they are asked for.
+     */
+    private LineStarts lineStarts;
+    private long offset;
     
     protected BaseTokenImpl(){
     	
@@ -20,18 +26,38 @@ public abstract class BaseTokenImpl implements BaseToken {
         this.col = col;
     }
     public int getRow() {
+        resolvePosition();
         return row;
     }
     public void setRow(int row) {
+        resolvePosition();
         this.row = row;
     }
     public int getCol() {
+        resolvePosition();
         return col;
     }
     public void setCol(int col) {
+        resolvePosition();
         this.col = col;
     }
 
+    /**
+     * Sets position of the token as its offset, resolved to row and column when they are needed.
+     */
+    void setPosition(LineStarts lineStarts, long offset) {
+        this.lineStarts = lineStarts;
+        this.offset = offset;
+    }
+
+    private void resolvePosition() {
+        if (lineStarts != null) {
+            row = lineStarts.getRow(offset);
+            col = lineStarts.getCol(offset);
+            lineStarts = null;
+        }
+    }
+
     @Override
     public String toString() {
         return "(line="+getRow()+", col="+getCol()+")";
@@ -65,7 +65,7 @@ public class BrowserCompactXmlSerializer extends XmlSerializer {
     @Override
     protected void serialize(TagNode tagNode, Writer writer) throws IOException {
         serializeOpenTag(tagNode, writer, false);
-        TagInfo tagInfo = props.getTagInfoProvider().getTagInfo(tagNode.getName());
+        TagInfo tagInfo = tagNode.getTagInfo(props.getTagInfoProvider());
         String tagName = tagInfo!=null? tagInfo.getName() : null;
         List tagChildren = new ArrayList (tagNode.getAllChildren());
         if (!isMinimizedTagSyntax(tagNode)) {
@@ -143,7 +143,7 @@ public class BrowserCompactXmlSerializer extends XmlSerializer {
         if (node instanceof ContentNode) {
             result = true;
         } else if (node instanceof TagNode) {
-            TagInfo nextInfo = props.getTagInfoProvider().getTagInfo(((TagNode) node).getName());
+            TagInfo nextInfo = ((TagNode) node).getTagInfo(props.getTagInfoProvider());
             result = nextInfo != null && nextInfo.getDisplay() == Display.inline;
         }
         return result;
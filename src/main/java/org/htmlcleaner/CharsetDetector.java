@@ -0,0 +1,217 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Detects charset of the HTML content from the byte order mark, or from the charset given
+ * in a META tag near the beginning of the content. Only the first bytes of the stream are examined
+ * and the stream is reset afterwards, so the content doesn't have to be read twice.</p>
+ */
+final class CharsetDetector {
+
+    /**
+     * Number of bytes examined for META tags, the same as browsers do.
+     */
+    static final int PRESCAN_LENGTH = 1024;
+
+    /**
+     * comment, possibly not terminated within the examined bytes
+     */
+    private static final Pattern COMMENT = Pattern.compile("<!--.*?(?:-->|\\z)", Pattern.DOTALL);
+    private static final Pattern META = Pattern.compile("<meta[\\s/][^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile("([^\\s=/>]+)(?:\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]*)))?");
+    private static final Pattern CHARSET_VALUE = Pattern.compile("\\s*([^\\s\"';>/]+)");
+    private static final Pattern CHARSET = Pattern.compile("charset\\s*=\\s*[\"']?\\s*([^\\s\"';>/]+)", Pattern.CASE_INSENSITIVE);
+
+    private CharsetDetector() {
+    }
+
+    /**
+     * Detects charset of the stream which supports mark and reset. The stream is positioned
+     * at the beginning of the content, after the UTF-8 byte order mark if there is one.
+     * @param in
+     * @param defaultCharset charset used if none is detected
+     * @return detected charset name
+     * @throws IOException
+     */
+    static String detect(InputStream in, String defaultCharset) throws IOException {
+        byte[] bytes = new byte[PRESCAN_LENGTH];
+        in.mark(PRESCAN_LENGTH);
+        int length = 0;
+        int count;
+        while ( length < bytes.length && (count = in.read(bytes, length, bytes.length - length)) >= 0 ) {
+            length += count;
+        }
+        in.reset();
+
+        if ( isUtf8Bom(bytes, length) ) {
+            // the mark is not part of the content, it is read if the stream doesn't skip
+            long skipped = 0;
+            while (skipped < 3) {
+                long skippedNow = in.skip(3 - skipped);
+                if (skippedNow <= 0) {
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    skippedNow = 1;
+                }
+                skipped += skippedNow;
+            }
+            return "UTF-8";
+        }
+
+        String charset = detect(bytes, length);
+        return charset != null ? charset : defaultCharset;
+    }
+
+    /**
+     * Detects charset of the content in the buffer. Buffer's position is moved after the UTF-8
+     * byte order mark if there is one.
+     * @param content
+     * @param defaultCharset charset used if none is detected
+     * @return detected charset name
+     */
+    static String detect(ByteBuffer content, String defaultCharset) {
+        byte[] bytes = new byte[Math.min(PRESCAN_LENGTH, content.remaining())];
+        content.duplicate().get(bytes);
+
+        if ( isUtf8Bom(bytes, bytes.length) ) {
+            content.position(content.position() + 3);
+            return "UTF-8";
+        }
+
+        String charset = detect(bytes, bytes.length);
+        return charset != null ? charset : defaultCharset;
+    }
+
+    private static boolean isUtf8Bom(byte[] bytes, int length) {
+        return length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF;
+    }
+
+    /**
+     * @param bytes
+     * @param length
+     * @return charset given by the byte order mark or META tag, or null if there is none
+     */
+    static String detect(byte[] bytes, int length) {
+        if (length >= 2) {
+            int first = bytes[0] & 0xFF;
+            int second = bytes[1] & 0xFF;
+            if ( (first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE) ) {
+                // UTF-16 decoder reads the mark itself
+                return "UTF-16";
+            }
+            if ( isUtf8Bom(bytes, length) ) {
+                return "UTF-8";
+            }
+        }
+
+        // ASCII compatible charset is assumed, so bytes are simply widened
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (bytes[i] & 0xFF);
+        }
+        String prefix = COMMENT.matcher(new String(chars)).replaceAll("");
+        Matcher metaMatcher = META.matcher(prefix);
+        while ( metaMatcher.find() ) {
+            String charset = getMetaCharset( metaMatcher.group() );
+            if ( charset != null && isSupported(charset) ) {
+                // ASCII based META can't really be in UTF-16
+                return charset.regionMatches(true, 0, "UTF-16", 0, 6) ? "UTF-8" : charset;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Takes the charset from the charset attribute of the META tag, or from the content attribute
+     * if the tag is a content type pragma. Other attributes are never looked at.
+     * @param meta META tag
+     * @return charset name, or null if the tag doesn't specify it
+     */
+    private static String getMetaCharset(String meta) {
+        String charset = null;
+        String httpEquiv = null;
+        String content = null;
+        Matcher attributeMatcher = ATTRIBUTE.matcher(meta);
+        // skips the tag name
+        attributeMatcher.region(5, meta.length() - 1);
+        while ( attributeMatcher.find() ) {
+            String name = attributeMatcher.group(1).toLowerCase();
+            String value = attributeMatcher.group(2);
+            if (value == null) {
+                value = attributeMatcher.group(3);
+            }
+            if (value == null) {
+                value = attributeMatcher.group(4) != null ? attributeMatcher.group(4) : "";
+            }
+            // only the first of the attributes with the same name counts
+            if ( "charset".equals(name) && charset == null ) {
+                charset = value;
+            } else if ( "http-equiv".equals(name) && httpEquiv == null ) {
+                httpEquiv = value;
+            } else if ( "content".equals(name) && content == null ) {
+                content = value;
+            }
+        }
+
+        if (charset != null) {
+            Matcher valueMatcher = CHARSET_VALUE.matcher(charset);
+            return valueMatcher.lookingAt() ? valueMatcher.group(1) : null;
+        }
+        if ( content != null && httpEquiv != null && "content-type".equalsIgnoreCase(httpEquiv.trim()) ) {
+            Matcher charsetMatcher = CHARSET.matcher(content);
+            return charsetMatcher.find() ? charsetMatcher.group(1) : null;
+        }
+        return null;
+    }
+
+    private static boolean isSupported(String charset) {
+        try {
+            return Charset.isSupported(charset);
+        } catch (IllegalCharsetNameException e) {
+            return false;
+        }
+    }
+
+}
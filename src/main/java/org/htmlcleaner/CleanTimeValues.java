@@ -33,12 +33,13 @@
 */
 package org.htmlcleaner;
 
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.Stack;
-import java.util.TreeSet;
 
+import org.htmlcleaner.HtmlCleaner.ContentEvents;
 import org.htmlcleaner.HtmlCleaner.NestingState;
 import org.htmlcleaner.conditional.ITagNodeCondition;
 
@@ -51,8 +52,14 @@ class CleanTimeValues {
     boolean _bodyOpened = false;
     @SuppressWarnings("rawtypes")
 	Set _headTags = new LinkedHashSet();
-    @SuppressWarnings("rawtypes")
-	Set allTags = new TreeSet();
+    /**
+     * ids of the names of all start tags, null unless tags are tracked
+     */
+    BitSet allTagIds;
+    /**
+     * names of all start tags which don't have an id
+     */
+    Set<String> otherTagNames;
     transient Stack<NestingState> nestingStates = new Stack<NestingState>();
 
     TagNode htmlNode;
@@ -63,4 +70,82 @@ class CleanTimeValues {
     Set<ITagNodeCondition> pruneTagSet = new HashSet<ITagNodeCondition>();
     Set<TagNode> pruneNodeSet = new HashSet<TagNode>();
     Set<ITagNodeCondition> allowTagSet;
+    /**
+     * names of the start tags dropped because of the depth limit, their end tags are dropped too
+     */
+    Stack<String> tagsOverMaxDepth = new Stack<String>();
+    /**
+     * a subtree was consumed by the subtree completion listener since the token list was last trimmed
+     */
+    boolean subtreeConsumed;
+    /**
+     * state of the cleaning which fires content events, null if the tree is returned
+     */
+    ContentEvents contentEvents;
+
+    /*
+     * Structures kept between the cleanings done with the same values, so that cleaning of small
+     * documents allocates little besides the resulting tree.
+     */
+    TokenList tokenList;
+    char[] workingBuffer;
+    Set<String> namespacePrefixes;
+    NestingState spareNesting;
+    /**
+     * values are taken by a cleaning which is not finished yet
+     */
+    boolean inUse;
+
+    /**
+     * Largest token list kept for the next cleaning.
+     */
+    private static final int MAX_KEPT_TOKENS = 4096;
+    /**
+     * Largest working buffer kept for the next cleaning. Values are kept for every thread which
+     * has cleaned something, so buffers of large documents are left to the garbage collector.
+     */
+    static final int MAX_KEPT_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Releases everything that refers to the last document, keeping the structures which are
+     * small enough to be reused.
+     */
+    void clear() {
+        _headOpened = false;
+        _bodyOpened = false;
+        _headTags.clear();
+        if (allTagIds != null) {
+            allTagIds.clear();
+            otherTagNames.clear();
+        }
+        nestingStates.clear();
+        htmlNode = null;
+        bodyNode = null;
+        headNode = null;
+        rootNode = null;
+        pruneTagSet.clear();
+        pruneNodeSet.clear();
+        if (allowTagSet != null) {
+            allowTagSet.clear();
+        }
+        tagsOverMaxDepth.clear();
+        subtreeConsumed = false;
+        contentEvents = null;
+        if (tokenList != null) {
+            if (tokenList.size() > MAX_KEPT_TOKENS) {
+                tokenList = null;
+            } else {
+                tokenList.clear();
+            }
+        }
+        if (workingBuffer != null && workingBuffer.length > MAX_KEPT_BUFFER_SIZE) {
+            workingBuffer = null;
+        }
+        if (namespacePrefixes != null) {
+            namespacePrefixes.clear();
+        }
+        if (spareNesting != null) {
+            spareNesting.clear();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Receives cleaned document as a stream of well-formed events, similar to SAX ContentHandler.
+ * Used with {@link HtmlCleaner#clean(java.io.Reader, CleanedContentHandler)} when resulting tree
+ * is only going to be serialized or indexed. Events of the top level elements are fired while the
+ * content is still being read, as soon as each of them is complete, and the elements are dropped
+ * afterwards, so the whole tree is never kept.
+ * </p>
+ * <p>
+ * Events are balanced - every {@link #startElement(String, Map)} is followed by matching
+ * {@link #endElement(String)}. Text and comment content is passed as it is kept in the tree,
+ * without any escaping.
+ * </p>
+ */
+public interface CleanedContentHandler {
+
+    /**
+     * Called before any other event.
+     * @param docType Doctype of the document, or null if there is no doctype
+     */
+    public void startDocument(DoctypeToken docType);
+
+    /**
+     * @param name Element name
+     * @param attributes Element attributes
+     */
+    public void startElement(String name, Map<String, String> attributes);
+
+    /**
+     * @param name Element name
+     */
+    public void endElement(String name);
+
+    /**
+     * @param content Text content
+     */
+    public void characters(String content);
+
+    /**
+     * @param content Comment content, without comment delimiters
+     */
+    public void comment(String content);
+
+    /**
+     * Called after all other events.
+     */
+    public void endDocument();
+
+}
@@ -105,6 +105,18 @@ public class CleanerProperties implements HtmlModificationListener{
 
     private List < HtmlModificationListener > htmlModificationListeners;
 
+    private List<InputFilter> inputFilters;
+
+    /**
+     * resource limits, 0 means there is no limit
+     */
+    private int maxDepth;
+    private int maxTokens;
+    private int maxAttributes;
+    private int maxAttributeLength;
+    private int maxTextLength;
+    private LimitPolicy limitPolicy;
+
     /**
      * blacklist of tags
      */
@@ -115,6 +127,26 @@ public class CleanerProperties implements HtmlModificationListener{
     private Set<ITagNodeCondition> allowTagSet = new HashSet<ITagNodeCondition>();
     private String charset = DEFAULT_CHARSET;
     private boolean transResCharsToNCR;
+    /**
+     * detect charset of the input stream from the byte order mark or META tag, charset is used if none is found
+     */
+    private boolean detectCharset;
+    /**
+     * size of the tokenizer's working buffer, 0 means it is chosen by the expected content length
+     */
+    private int bufferSize;
+    /**
+     * set row and column of every token in the source content
+     */
+    private boolean trackPositions;
+    /**
+     * collect names of all the tags found in the content
+     */
+    private boolean trackAllTags;
+    /**
+     * receives every element closed by its end tag while cleaning
+     */
+    private SubtreeCompletionListener subtreeCompletionListener;
 
     public CleanerProperties() {
         reset();
@@ -398,6 +430,172 @@ public class CleanerProperties implements HtmlModificationListener{
         return charset;
     }
 
+    /**
+     * @param detectCharset if true, charset of the input stream or file for which no charset is specified
+     * is detected from the byte order mark or META tag at the beginning of the content. If none is found,
+     * {@link #getCharset()} is used.
+     */
+    public void setDetectCharset(boolean detectCharset) {
+        this.detectCharset = detectCharset;
+    }
+
+    /**
+     * @return the detectCharset
+     */
+    public boolean isDetectCharset() {
+        return detectCharset;
+    }
+
+    /**
+     * @param bufferSize size of the tokenizer's working buffer in characters, or 0 to choose it
+     * from the content length if it is known in advance (file length, string length, available bytes).
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize < 0 ? 0 : bufferSize;
+    }
+
+    /**
+     * @return the bufferSize
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param trackPositions if true, row and column where each token starts in the source content
+     * are available from {@link BaseToken#getRow()} and {@link BaseToken#getCol()}. Otherwise they are 0.
+     * Tokens keep only their offsets, which are resolved to rows and columns when asked for.
+     */
+    public void setTrackPositions(boolean trackPositions) {
+        this.trackPositions = trackPositions;
+    }
+
+    /**
+     * @return the trackPositions
+     */
+    public boolean isTrackPositions() {
+        return trackPositions;
+    }
+
+    /**
+     * @param trackAllTags if true, names of all the start tags found in the content are collected
+     * while cleaning. Otherwise the collected set is always empty.
+     */
+    public void setTrackAllTags(boolean trackAllTags) {
+        this.trackAllTags = trackAllTags;
+    }
+
+    /**
+     * @return the trackAllTags
+     */
+    public boolean isTrackAllTags() {
+        return trackAllTags;
+    }
+
+    /**
+     * @param subtreeCompletionListener listener receiving every element as soon as it is closed by
+     * its end tag, it may consume the element to drop it from the document. Null if not used.
+     */
+    public void setSubtreeCompletionListener(SubtreeCompletionListener subtreeCompletionListener) {
+        this.subtreeCompletionListener = subtreeCompletionListener;
+    }
+
+    /**
+     * @return the subtreeCompletionListener
+     */
+    public SubtreeCompletionListener getSubtreeCompletionListener() {
+        return subtreeCompletionListener;
+    }
+
+    /**
+     * @param maxDepth maximum number of nested open elements, 0 for no limit. If the limit
+     * is reached and content is truncated, deeper start tags are dropped while their content is kept.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth < 0 ? 0 : maxDepth;
+    }
+
+    /**
+     * @return the maxDepth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxTokens maximum number of tokens (tags, texts and comments) in the document, 0 for
+     * no limit. If the limit is reached and content is truncated, the rest of the document is dropped.
+     */
+    public void setMaxTokens(int maxTokens) {
+        this.maxTokens = maxTokens < 0 ? 0 : maxTokens;
+    }
+
+    /**
+     * @return the maxTokens
+     */
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * @param maxAttributes maximum number of attributes of a single tag, 0 for no limit.
+     * If the limit is reached and content is truncated, further attributes are dropped.
+     */
+    public void setMaxAttributes(int maxAttributes) {
+        this.maxAttributes = maxAttributes < 0 ? 0 : maxAttributes;
+    }
+
+    /**
+     * @return the maxAttributes
+     */
+    public int getMaxAttributes() {
+        return maxAttributes;
+    }
+
+    /**
+     * @param maxAttributeLength maximum length of an attribute value, 0 for no limit.
+     * If the limit is reached and content is truncated, the value is cut to this length.
+     */
+    public void setMaxAttributeLength(int maxAttributeLength) {
+        this.maxAttributeLength = maxAttributeLength < 0 ? 0 : maxAttributeLength;
+    }
+
+    /**
+     * @return the maxAttributeLength
+     */
+    public int getMaxAttributeLength() {
+        return maxAttributeLength;
+    }
+
+    /**
+     * @param maxTextLength maximum total length of the texts and comments in the document, 0 for
+     * no limit. If the limit is reached and content is truncated, the rest of the document is dropped.
+     */
+    public void setMaxTextLength(int maxTextLength) {
+        this.maxTextLength = maxTextLength < 0 ? 0 : maxTextLength;
+    }
+
+    /**
+     * @return the maxTextLength
+     */
+    public int getMaxTextLength() {
+        return maxTextLength;
+    }
+
+    /**
+     * @param limitPolicy what to do when one of the resource limits is reached
+     */
+    public void setLimitPolicy(LimitPolicy limitPolicy) {
+        this.limitPolicy = limitPolicy == null ? LimitPolicy.truncate : limitPolicy;
+    }
+
+    /**
+     * @return the limitPolicy
+     */
+    public LimitPolicy getLimitPolicy() {
+        return limitPolicy;
+    }
+
     public String getBooleanAttributeValues() {
         return booleanAttributeValues;
     }
@@ -438,6 +636,14 @@ public class CleanerProperties implements HtmlModificationListener{
      * booleanAttributeValues = BOOL_ATT_SELF;
      * collapseNullHtml = CollapseHtml.none
      * charset = "UTF-8";
+     * detectCharset = false;
+     * bufferSize = 0;
+     * trackPositions = false;
+     * trackAllTags = false;
+     * subtreeCompletionListener = null;
+     * inputFilters = empty
+     * maxDepth = maxTokens = maxAttributes = maxAttributeLength = maxTextLength = 0;
+     * limitPolicy = LimitPolicy.truncate;
      */
     public void reset() {
         advancedXmlEscape = true;
@@ -464,10 +670,22 @@ public class CleanerProperties implements HtmlModificationListener{
         setAllowTags(null);
         booleanAttributeValues = BOOL_ATT_SELF;
         charset = "UTF-8";
+        detectCharset = false;
+        bufferSize = 0;
+        trackPositions = false;
+        trackAllTags = false;
+        subtreeCompletionListener = null;
         cleanerTransformations.clear();
         resetPruneTagSet();
         tagInfoProvider = DefaultTagProvider.INSTANCE;
         htmlModificationListeners = new ArrayList < HtmlModificationListener >();
+        inputFilters = new ArrayList<InputFilter>();
+        maxDepth = 0;
+        maxTokens = 0;
+        maxAttributes = 0;
+        maxAttributeLength = 0;
+        maxTextLength = 0;
+        limitPolicy = LimitPolicy.truncate;
     }
 
     private void resetPruneTagSet() {
@@ -500,6 +718,23 @@ public class CleanerProperties implements HtmlModificationListener{
         htmlModificationListeners.add(listener);
     }
 
+    /**
+     * Adds a filter that modifies the input before it is tokenized. Filters are applied in the
+     * order they are added.
+     *
+     * @param filter -- filter to apply, for example one of {@link StandardInputFilter}.
+     */
+    public void addInputFilter(InputFilter filter) {
+        inputFilters.add(filter);
+    }
+
+    /**
+     * @return the inputFilters
+     */
+    public List<InputFilter> getInputFilters() {
+        return inputFilters;
+    }
+
     public void fireConditionModification(ITagNodeCondition condition, TagNode tagNode) {
         for (HtmlModificationListener listener : htmlModificationListeners) {
             listener.fireConditionModification(condition, tagNode);
@@ -0,0 +1,87 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * <p>Incremental cleaning of the content which arrives portion by portion, for example while
+ * it is received from the network. Every portion is tokenized and added to the tree as soon as
+ * it is fed, so the whole raw content is never kept in memory. Token which is split between
+ * portions is completed when the next portion arrives.</p>
+ * <p>Sessions are created by {@link HtmlCleaner#newSession()}. Result is the same as if the
+ * whole content was cleaned at once.</p>
+ */
+public class CleaningSession {
+
+    private final HtmlCleaner cleaner;
+    private final HtmlTokenizer tokenizer;
+    private final CleanTimeValues cleanTimeValues;
+    private TagNode rootNode;
+
+    CleaningSession(HtmlCleaner cleaner, HtmlTokenizer tokenizer, CleanTimeValues cleanTimeValues) {
+        this.cleaner = cleaner;
+        this.tokenizer = tokenizer;
+        this.cleanTimeValues = cleanTimeValues;
+    }
+
+    /**
+     * Feeds next portion of the content. Characters are copied, so the buffer may be reused
+     * once this method returns.
+     * @param chunk content, consumed completely.
+     * @throws IOException
+     * @throws IllegalStateException if the session is already finished.
+     */
+    public void feed(CharBuffer chunk) throws IOException {
+        if (rootNode != null) {
+            throw new IllegalStateException("Cleaning session is already finished");
+        }
+        tokenizer.feed(chunk);
+    }
+
+    /**
+     * Marks the end of the content and completes the tree. Subsequent calls return the same tree.
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
+    public TagNode finish() throws IOException {
+        if (rootNode == null) {
+            tokenizer.finish();
+            rootNode = cleaner.finishCleaning(tokenizer, cleanTimeValues);
+        }
+        return rootNode;
+    }
+
+}
@@ -37,6 +37,7 @@
 
 package org.htmlcleaner;
 
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -471,6 +472,13 @@ public class DefaultTagProvider implements ITagInfoProvider {
         this.tagInfoMap.put(tagName, tagInfo);
     }
 
+    /**
+     * @return names of all known tags
+     */
+    Set<String> getTagNames() {
+        return this.tagInfoMap.keySet();
+    }
+
     public TagInfo getTagInfo(String tagName) {
         if ( tagName == null) {
             // null named tagNode happens when a html fragment is being dealt with
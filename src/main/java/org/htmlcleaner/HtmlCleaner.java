@@ -37,6 +37,7 @@
 
 package org.htmlcleaner;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -44,18 +45,29 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.TreeSet;
 
 import org.htmlcleaner.audit.ErrorType;
 import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
 
 /**
  * Main HtmlCleaner class.
@@ -105,23 +117,32 @@ import org.htmlcleaner.conditional.ITagNodeCondition;
 public class HtmlCleaner {
 
     /**
-     * Marker attribute added to aid with part of the cleaning process.
-     * TODO: a non-intrusive way of doing this that does not involve modifying the source html
+     * Files of at least this size are memory-mapped, smaller ones are simply read.
      */
-    private static final String MARKER_ATTRIBUTE = "htmlcleaner_marker";
+    private static final int MAPPED_FILE_MIN_SIZE = 1024 * 1024;
     
     /**
      * Contains information about single open tag
      */
-    private class TagPos {
+    private static class TagPos {
 		private int position;
 		private String name;
+		private int id;
 		private TagInfo info;
-
-		TagPos(int position, String name) {
+		/**
+		 * Order in which open tags were added, neighbours in the list of open tags, and the
+		 * previous open tag with the same name.
+		 */
+		private long sequence;
+		private TagPos prev;
+		private TagPos next;
+		private TagPos prevSameName;
+
+		TagPos(int position, TagToken token, TagInfo info) {
 			this.position = position;
-			this.name = name;
-            this.info = getTagInfoProvider().getTagInfo(name);
+			this.name = token.getName();
+			this.id = token.getTagId();
+            this.info = info;
         }
 	}
     
@@ -132,7 +153,7 @@ public class HtmlCleaner {
      * @author Konstantin Burov
      *
      */
-    private class ChildBreaks{
+    private static class ChildBreaks{
         private Stack < TagPos> closedByChildBreak = new Stack < TagPos >();
         private Stack < TagPos > breakingTags = new Stack < TagPos >();
 
@@ -174,10 +195,15 @@ public class HtmlCleaner {
         public int getLastBreakingTagPosition() {
             return breakingTags.isEmpty()?-1:breakingTags.peek().position;
         }
+
+        private void clear() {
+            closedByChildBreak.clear();
+            breakingTags.clear();
+        }
     }
 
     
-	protected class NestingState {
+	protected static class NestingState {
 		
 		private OpenTags openTags = new OpenTags();
 		private ChildBreaks childBreaks = new ChildBreaks();
@@ -188,6 +214,14 @@ public class HtmlCleaner {
 		public ChildBreaks getChildBreaks() {
 			return this.childBreaks;
 		}
+
+		/**
+		 * Forgets all open tags and breaks, so the state can be used for another document.
+		 */
+		void clear() {
+			openTags.clear();
+			childBreaks.clear();
+		}
 	}
 
 
@@ -195,36 +229,76 @@ public class HtmlCleaner {
      * Class that contains information and methods for managing list of open,
      * but unhandled tags.
      */
-    class OpenTags {
-        private List<TagPos> list = new ArrayList<TagPos>();
+    static class OpenTags {
+        /**
+         * Open tags form a doubly linked list in the order they were opened. Besides that,
+         * the last open tag of every name is indexed, and tags of the same name are linked,
+         * so lookups by name don't depend on the number of open tags.
+         */
+        private TagPos first;
         private TagPos last;
+        private Map<String, TagPos> lastByName = new HashMap<String, TagPos>();
+        private int size;
+        private long sequence;
         private Set<String> set = new HashSet<String>();
 
         private boolean isEmpty() {
-            return list.isEmpty();
+            return size == 0;
         }
 
-        private void addTag(String tagName, int position) {
-            last = new TagPos(position, tagName);
-            list.add(last);
-            set.add(tagName);
+        private int size() {
+            return size;
         }
 
-        private void removeTag(String tagName) {
-            ListIterator<TagPos> it = list.listIterator( list.size() );
-            while ( it.hasPrevious() ) {
-                TagPos currTagPos = it.previous();
-                if (tagName.equals(currTagPos.name)) {
-                    it.remove();
-                    break;
-                }
+        private void clear() {
+            first = null;
+            last = null;
+            lastByName.clear();
+            size = 0;
+            sequence = 0;
+            set.clear();
+        }
+
+        private void addTag(TagToken token, TagInfo tagInfo, int position) {
+            TagPos tagPos = new TagPos(position, token, tagInfo);
+            tagPos.sequence = sequence++;
+            tagPos.prev = last;
+            if (last != null) {
+                last.next = tagPos;
+            } else {
+                first = tagPos;
             }
+            last = tagPos;
+            tagPos.prevSameName = lastByName.put(tagPos.name, tagPos);
+            size++;
+            set.add(tagPos.name);
+        }
 
-            last =  list.isEmpty() ? null : (TagPos) list.get( list.size() - 1 );
+        private void removeTag(String tagName) {
+            TagPos tagPos = lastByName.get(tagName);
+            if (tagPos == null) {
+                return;
+            }
+            if (tagPos.prevSameName != null) {
+                lastByName.put(tagName, tagPos.prevSameName);
+            } else {
+                lastByName.remove(tagName);
+            }
+            if (tagPos.prev != null) {
+                tagPos.prev.next = tagPos.next;
+            } else {
+                first = tagPos.next;
+            }
+            if (tagPos.next != null) {
+                tagPos.next.prev = tagPos.prev;
+            } else {
+                last = tagPos.prev;
+            }
+            size--;
         }
 
         private TagPos findFirstTagPos() {
-            return list.isEmpty() ? null : (TagPos) list.get(0);
+            return first;
         }
 
         private TagPos getLastTagPos() {
@@ -233,22 +307,19 @@ public class HtmlCleaner {
 
         private TagPos findTag(String tagName) {
             if (tagName != null) {
-                ListIterator<TagPos> it = list.listIterator(list.size());
-                String fatalTag = null;
-                TagInfo fatalInfo = getTagInfoProvider().getTagInfo(tagName);
-                if (fatalInfo != null) {
-                    fatalTag = fatalInfo.getFatalTag();
-                }
-
-                while (it.hasPrevious()) {
-                    TagPos currTagPos = it.previous();
-                    if (tagName.equals(currTagPos.name)) {
-                        return currTagPos;
-                    } else if (fatalTag != null && fatalTag.equals(currTagPos.name)) {
+                TagPos tagPos = lastByName.get(tagName);
+                if (tagPos != null) {
+                    TagInfo info = tagPos.info;
+                    String fatalTag = info != null ? info.getFatalTag() : null;
+                    if (fatalTag != null) {
                         // do not search past a fatal tag for this tag
-                        return null;
+                        TagPos fatalPos = lastByName.get(fatalTag);
+                        if (fatalPos != null && fatalPos.sequence > tagPos.sequence) {
+                            return null;
+                        }
                     }
                 }
+                return tagPos;
             }
 
             return null;
@@ -262,17 +333,14 @@ public class HtmlCleaner {
         private TagPos findTagToPlaceRubbish() {
             TagPos result = null, prev = null;
 
-            if ( !isEmpty() ) {
-                ListIterator<TagPos> it = list.listIterator( list.size() );
-                while ( it.hasPrevious() ) {
-                    result = it.previous();
-                    if ( result.info == null || result.info.allowsAnything() ) {
-                    	if (prev != null) {
-                            return prev;
-                        }
+            for (TagPos curr = last; curr != null; curr = curr.prev) {
+                result = curr;
+                if ( result.info == null || result.info.allowsAnything() ) {
+                    if (prev != null) {
+                        return prev;
                     }
-                    prev = result;
                 }
+                prev = result;
             }
 
             return result;
@@ -287,10 +355,18 @@ public class HtmlCleaner {
          * @param tags
          */
         private boolean someAlreadyOpen(Set<String> tags) {
-        	for (TagPos curr : list) {
-            	if ( tags.contains(curr.name) ) {
-            		return true;
-            	}
+            if (tags.size() > size) {
+                for (TagPos curr = first; curr != null; curr = curr.next) {
+                    if ( tags.contains(curr.name) ) {
+                        return true;
+                    }
+                }
+            } else {
+                for (String tag : tags) {
+                    if ( lastByName.containsKey(tag) ) {
+                        return true;
+                    }
+                }
             }
             return false;
         }
@@ -300,6 +376,17 @@ public class HtmlCleaner {
 
     private CleanerTransformations transformations;
 
+    /**
+     * Tag and attribute names shared by all documents cleaned by this cleaner.
+     */
+    private final NameTable nameTable = new NameTable();
+
+    /**
+     * Clean time values of each thread, reused by its subsequent cleanings with any cleaner. Values
+     * don't refer to the cleaner or the document once released, and keep only small structures.
+     */
+    private static final ThreadLocal<CleanTimeValues> THREAD_CLEAN_TIME_VALUES = new ThreadLocal<CleanTimeValues>();
+
     /**
      * Constructor - creates cleaner instance with default tag info provider and default properties.
      */
@@ -334,30 +421,139 @@ public class HtmlCleaner {
 	}
 
     public TagNode clean(String htmlContent) {
+        return clean( (CharSequence) htmlContent );
+    }
+
+    /**
+     * Cleans content which is already in memory. Content is copied directly to the
+     * tokenizer's working buffer, without any intermediate reader.
+     * @param htmlContent
+     * @return An instance of TagNode object which is the root of the XML tree.
+     */
+    public TagNode clean(CharSequence htmlContent) {
+        CleanTimeValues cleanTimeValues = acquireCleanTimeValues();
+        this.transformations = this.properties.getCleanerTransformations();
         try {
-            return clean( new StringReader(htmlContent), new CleanTimeValues() );
+            return clean( new HtmlTokenizer(this, htmlContent, cleanTimeValues), cleanTimeValues );
         } catch (IOException e) {
-            // should never happen because reading from StringReader
+            // should never happen because there is no reading
             throw new HtmlCleanerException(e);
+        } finally {
+            releaseCleanTimeValues(cleanTimeValues);
+        }
+    }
+
+    /**
+     * Cleans specified part of the array. The array is scanned directly, it is neither
+     * copied nor modified. If there are input filters, content is copied portion by portion
+     * so that filters can be applied.
+     * @param htmlContent
+     * @param offset
+     * @param length
+     * @return An instance of TagNode object which is the root of the XML tree.
+     */
+    public TagNode clean(char[] htmlContent, int offset, int length) {
+        if ( !this.properties.getInputFilters().isEmpty() ) {
+            return clean( CharBuffer.wrap(htmlContent, offset, length) );
+        }
+        CleanTimeValues cleanTimeValues = acquireCleanTimeValues();
+        this.transformations = this.properties.getCleanerTransformations();
+        try {
+            return clean( new HtmlTokenizer(this, htmlContent, offset, length, cleanTimeValues), cleanTimeValues );
+        } catch (IOException e) {
+            // should never happen because there is no reading
+            throw new HtmlCleanerException(e);
+        } finally {
+            releaseCleanTimeValues(cleanTimeValues);
         }
     }
 
+    /**
+     * Cleans content of the specified file. Bytes are decoded directly to the tokenizer's working
+     * buffer, and larger files are memory-mapped instead of being read. The mapping is released
+     * as soon as the file is cleaned where the JVM allows it, otherwise when it is garbage collected.
+     * Files larger than 2GB are read through the reader.
+     * @param file
+     * @param charset
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
     public TagNode clean(File file, String charset) throws IOException {
+        return clean(file, charset, false);
+    }
+
+    /**
+     * @param file
+     * @param charset charset of the file, or default charset if it is detected
+     * @param detectCharset if true, charset is detected from the beginning of the file
+     */
+    private TagNode clean(File file, String charset, boolean detectCharset) throws IOException {
+        Charset fileCharset = toCharset(charset);
+
         FileInputStream in = new FileInputStream(file);
         Reader reader = null;
+        ByteBuffer mappedBytes = null;
+        CleanTimeValues cleanTimeValues = acquireCleanTimeValues();
         try {
-            reader = new InputStreamReader(in, charset);
-            return clean(reader, new CleanTimeValues());
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                InputStream stream = in;
+                if (detectCharset) {
+                    stream = new BufferedInputStream(in);
+                    fileCharset = toCharset( CharsetDetector.detect(stream, charset) );
+                }
+                reader = new InputStreamReader(stream, fileCharset);
+                return clean(reader, size, cleanTimeValues);
+            }
+
+            ByteBuffer bytes;
+            if (size >= MAPPED_FILE_MIN_SIZE) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                mappedBytes = bytes;
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // read until the buffer is full
+                }
+                bytes.flip();
+            }
+            if (detectCharset) {
+                fileCharset = toCharset( CharsetDetector.detect(bytes, charset) );
+            }
+
+            this.transformations = this.properties.getCleanerTransformations();
+            return clean( new HtmlTokenizer(this, bytes, fileCharset, cleanTimeValues), cleanTimeValues );
         } finally {
+            releaseCleanTimeValues(cleanTimeValues);
             if ( reader != null) {
                 try{ reader.close(); } catch(IOException e) {}
             }
             try{ in.close(); } catch(IOException e) {}
+            if (mappedBytes != null) {
+                // nothing refers to the buffer once the tree is built
+                Utils.unmap(mappedBytes);
+            }
         }
      }
 
+    private static Charset toCharset(String charset) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(charset);
+        }
+    }
+
+    /**
+     * Cleans content of the specified file, using the charset from the properties. If charset
+     * detection is turned on, charset given by the byte order mark or META tag is used instead.
+     * @param file
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
     public TagNode clean(File file) throws IOException {
-        return clean(file, properties.getCharset());
+        return clean(file, properties.getCharset(), properties.isDetectCharset());
     }
 
     /**
@@ -371,8 +567,7 @@ public class HtmlCleaner {
     @Deprecated // Removing network I/O will make htmlcleaner better suited to a server environment which needs managed connections
     public TagNode clean(URL url, String charset) throws IOException {
         CharSequence content = Utils.readUrl(url, charset);
-        Reader reader = new StringReader( content.toString() );
-        return clean(reader, new CleanTimeValues()) ;
+        return clean(content);
     }
     /**
      * Creates instance from the content downloaded from specified URL.
@@ -387,11 +582,38 @@ public class HtmlCleaner {
         return clean(url, properties.getCharset());
     }
 
+    /**
+     * Cleans content of the stream. Number of bytes available in the stream is taken only as a
+     * hint of the content size, the stream is read to its end regardless.
+     * @param in (not closed)
+     * @param charset
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
     public TagNode clean(InputStream in, String charset) throws IOException {
-        return clean( new InputStreamReader(in, charset), new CleanTimeValues() );
+        CleanTimeValues cleanTimeValues = acquireCleanTimeValues();
+        try {
+            return clean( new InputStreamReader(in, charset), in.available(), cleanTimeValues );
+        } finally {
+            releaseCleanTimeValues(cleanTimeValues);
+        }
     }
 
+    /**
+     * Cleans content of the stream, using the charset from the properties. If charset detection
+     * is turned on, charset given by the byte order mark or META tag is used instead. Only the
+     * beginning of the stream is examined, with the help of mark and reset.
+     * @param in
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
     public TagNode clean(InputStream in) throws IOException {
+        if ( properties.isDetectCharset() ) {
+            if ( !in.markSupported() ) {
+                in = new BufferedInputStream(in);
+            }
+            return clean( in, CharsetDetector.detect(in, properties.getCharset()) );
+        }
         return clean(in, properties.getCharset());
     }
     
@@ -402,14 +624,103 @@ public class HtmlCleaner {
      * @throws IOException
      */
     public TagNode clean(Reader reader, final CleanTimeValues cleanTimeValues) throws IOException {
-        pushNesting(cleanTimeValues);
+        return clean(reader, -1, cleanTimeValues);
+    }
+
+    /**
+     * @param reader (not closed)
+     * @param sizeHint expected content length used to size the working buffer, non-positive if unknown
+     */
+    private TagNode clean(Reader reader, long sizeHint, final CleanTimeValues cleanTimeValues) throws IOException {
+        this.transformations = this.properties.getCleanerTransformations();
+        HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, reader, cleanTimeValues);
+        htmlTokenizer.setSizeHint(sizeHint);
+        return clean( htmlTokenizer, cleanTimeValues );
+    }
+
+    private TagNode clean(HtmlTokenizer htmlTokenizer, final CleanTimeValues cleanTimeValues) throws IOException {
+        startCleaning(cleanTimeValues);
+		htmlTokenizer.start();
+        return finishCleaning(htmlTokenizer, cleanTimeValues);
+    }
+
+    /**
+     * Starts incremental cleaning. Content is passed to the returned session portion by portion,
+     * as it arrives, and is tokenized and cleaned meanwhile. The tree is complete once the session
+     * is finished. The session must be used by a single thread.
+     * @return new cleaning session
+     */
+    public CleaningSession newSession() {
+        this.transformations = this.properties.getCleanerTransformations();
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, cleanTimeValues);
+        startCleaning(cleanTimeValues);
+        return new CleaningSession(this, htmlTokenizer, cleanTimeValues);
+    }
+
+    /**
+     * Takes clean time values of the current thread. If they are taken already, by a cleaning
+     * started while another one is in progress, new values are used instead.
+     * @return values to be released once the cleaning is done
+     */
+    private CleanTimeValues acquireCleanTimeValues() {
+        CleanTimeValues cleanTimeValues = THREAD_CLEAN_TIME_VALUES.get();
+        if (cleanTimeValues == null) {
+            cleanTimeValues = new CleanTimeValues();
+            THREAD_CLEAN_TIME_VALUES.set(cleanTimeValues);
+        } else if (cleanTimeValues.inUse) {
+            return new CleanTimeValues();
+        }
+        cleanTimeValues.inUse = true;
+        return cleanTimeValues;
+    }
+
+    /**
+     * @return clean time values kept for the current thread, null if it hasn't cleaned anything yet
+     */
+    static CleanTimeValues getThreadCleanTimeValues() {
+        return THREAD_CLEAN_TIME_VALUES.get();
+    }
+
+    /**
+     * Releases values taken by {@link #acquireCleanTimeValues()}, so they no longer refer to the
+     * cleaned document.
+     */
+    private void releaseCleanTimeValues(CleanTimeValues cleanTimeValues) {
+        if (cleanTimeValues.inUse) {
+            cleanTimeValues.clear();
+            cleanTimeValues.inUse = false;
+        }
+    }
+
+    private void startCleaning(final CleanTimeValues cleanTimeValues) {
+        if (cleanTimeValues.spareNesting != null) {
+            cleanTimeValues.spareNesting.clear();
+            cleanTimeValues.nestingStates.push(cleanTimeValues.spareNesting);
+            cleanTimeValues.spareNesting = null;
+        } else {
+            pushNesting(cleanTimeValues);
+        }
         cleanTimeValues._headOpened = false;
         cleanTimeValues._bodyOpened = false;
         cleanTimeValues._headTags.clear();
-        cleanTimeValues.allTags.clear();
-        cleanTimeValues.pruneTagSet = new HashSet<ITagNodeCondition>(this.properties.getPruneTagSet());
-        cleanTimeValues.allowTagSet = new HashSet<ITagNodeCondition>(this.properties.getAllowTagSet());
-        this.transformations = this.properties.getCleanerTransformations();
+        if ( !this.properties.isTrackAllTags() ) {
+            cleanTimeValues.allTagIds = null;
+            cleanTimeValues.otherTagNames = null;
+        } else if (cleanTimeValues.allTagIds == null) {
+            cleanTimeValues.allTagIds = new BitSet();
+            cleanTimeValues.otherTagNames = new HashSet<String>();
+        } else {
+            cleanTimeValues.allTagIds.clear();
+            cleanTimeValues.otherTagNames.clear();
+        }
+        cleanTimeValues.pruneTagSet.clear();
+        cleanTimeValues.pruneTagSet.addAll(this.properties.getPruneTagSet());
+        if (cleanTimeValues.allowTagSet == null) {
+            cleanTimeValues.allowTagSet = new HashSet<ITagNodeCondition>();
+        }
+        cleanTimeValues.allowTagSet.clear();
+        cleanTimeValues.allowTagSet.addAll(this.properties.getAllowTagSet());
         cleanTimeValues.pruneNodeSet.clear();
 
         cleanTimeValues.htmlNode = this.newTagNode("html");
@@ -418,12 +729,16 @@ public class HtmlCleaner {
         cleanTimeValues.rootNode = null;
         cleanTimeValues.htmlNode.addChild(cleanTimeValues.headNode);
         cleanTimeValues.htmlNode.addChild(cleanTimeValues.bodyNode);
+    }
 
-        HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, reader, cleanTimeValues);
-
-		htmlTokenizer.start();
-
-        List nodeList = htmlTokenizer.getTokenList();
+    /**
+     * Completes the tree once the whole content is tokenized.
+     * @param htmlTokenizer
+     * @param cleanTimeValues
+     * @return root of the resulting tree
+     */
+    TagNode finishCleaning(HtmlTokenizer htmlTokenizer, final CleanTimeValues cleanTimeValues) {
+        List<BaseToken> nodeList = htmlTokenizer.getTokenList();
         closeAll(nodeList, cleanTimeValues);
 
         createDocumentNodes(nodeList, cleanTimeValues);
@@ -432,40 +747,396 @@ public class HtmlCleaner {
         // Some transitions on resulting html require us to have the tag tree structure.
         // i.e. if we want to clear insignificant <br> tags. Thus this place is best for
         // marking nodes to be pruned.
-        while(markNodesToPrune(nodeList, cleanTimeValues)) {
-			// do them all
-		}
+        markNodesToPrune(nodeList, cleanTimeValues);
+        removePrunedNodes(cleanTimeValues);
+
+        cleanTimeValues.rootNode.setDocType( htmlTokenizer.getDocType() );
+        cleanTimeValues.spareNesting = popNesting(cleanTimeValues);
+        htmlTokenizer.releaseWorkingBuffer();
+        return cleanTimeValues.rootNode;
+    }
+
+    /**
+     * Cleans a fragment of the document which is to be placed inside the specified node. Tags
+     * enclosing the node are taken as open when the fragment starts, so the fragment is balanced
+     * the same way as if it were a part of the document, yet nothing outside of it is built.
+     * Content which would close the node, and thus end up outside of it, is dropped. Tags of the
+     * fragment are never moved to the head.
+     * @param context node which is to contain the fragment, it is not changed
+     * @param reader (not closed)
+     * @return cleaned top level nodes of the fragment, which have no parent
+     * @throws IOException
+     */
+    public List<BaseToken> cleanFragment(TagNode context, Reader reader) throws IOException {
+        List<TagNode> contextTags = new ArrayList<TagNode>();
+        boolean isInHead = false;
+        for (TagNode ancestor = context; ancestor != null; ancestor = ancestor.getParent()) {
+            String name = ancestor.getName();
+            if ( "head".equals(name) ) {
+                isInHead = true;
+            } else if ( name != null && !"html".equals(name) && !"body".equals(name) ) {
+                contextTags.add(0, newTagNode(name));
+            }
+        }
+
+        CleanTimeValues cleanTimeValues = acquireCleanTimeValues();
+        this.transformations = this.properties.getCleanerTransformations();
+        try {
+            HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, reader, cleanTimeValues);
+            startCleaning(cleanTimeValues);
+            cleanTimeValues._headOpened = isInHead;
+            cleanTimeValues._bodyOpened = !isInHead;
+            htmlTokenizer.setContextTags(contextTags);
+            htmlTokenizer.start();
+            return finishFragment(htmlTokenizer, contextTags, cleanTimeValues);
+        } finally {
+            releaseCleanTimeValues(cleanTimeValues);
+        }
+    }
+
+    /**
+     * Passes start tags of the enclosing elements to the tree building before the fragment is
+     * tokenized, so they are open when it starts. Tags which don't stay open, like a div placed in
+     * a p which it closes, are skipped and the rest are passed again, so the fragment always starts
+     * in the innermost of the context tags which are left.
+     * @param contextTags start tags of the enclosing elements, the outermost first, skipped tags
+     * are removed and the rest are replaced with the tags actually passed
+     * @param tokenList
+     * @param cleanTimeValues
+     */
+    void openContext(List<TagNode> contextTags, List<BaseToken> tokenList, CleanTimeValues cleanTimeValues) {
+        while ( !contextTags.isEmpty() ) {
+            for (TagNode contextTag : contextTags) {
+                tokenList.add(contextTag);
+                makeTree( tokenList, tokenList.listIterator(tokenList.size() - 1), cleanTimeValues );
+            }
+
+            List<TagNode> openContextTags = new ArrayList<TagNode>();
+            TagNode lastOpen = null;
+            for (TagPos pos = getOpenTags(cleanTimeValues).findFirstTagPos(); pos != null; pos = pos.next) {
+                lastOpen = (TagNode) tokenList.get(pos.position);
+                if ( contextTags.contains(lastOpen) ) {
+                    openContextTags.add(lastOpen);
+                }
+            }
+            if ( openContextTags.size() == contextTags.size() && lastOpen == contextTags.get(contextTags.size() - 1) ) {
+                return;
+            }
+
+            // tags already passed are changed by the tree building, so new ones are passed instead
+            contextTags.clear();
+            for (TagNode openContextTag : openContextTags) {
+                contextTags.add( newTagNode(openContextTag.getName()) );
+            }
+            tokenList.clear();
+            cleanTimeValues.nestingStates.peek().clear();
+            cleanTimeValues._headTags.clear();
+            cleanTimeValues.tagsOverMaxDepth.clear();
+        }
+    }
 
-        // if there are some nodes to prune from tree
+    /**
+     * Completes the fragment once the whole content is tokenized. Only the content which ends up
+     * inside the innermost context tag is kept, content which closes it is dropped.
+     * @param htmlTokenizer
+     * @param contextTags tags opened before the fragment
+     * @param cleanTimeValues
+     * @return top level nodes of the fragment
+     */
+    private List<BaseToken> finishFragment(HtmlTokenizer htmlTokenizer, List<TagNode> contextTags, final CleanTimeValues cleanTimeValues) {
+        List<BaseToken> nodeList = htmlTokenizer.getTokenList();
+        closeAll(nodeList, contextTags, cleanTimeValues);
+
+        TagNode fragmentParent;
+        if ( contextTags.isEmpty() ) {
+            // fragment is placed directly into the head or body
+            fragmentParent = cleanTimeValues.bodyNode;
+            addTopLevelNodes(fragmentParent, nodeList);
+        } else {
+            fragmentParent = contextTags.get(contextTags.size() - 1);
+        }
+
+        markNodesToPrune(fragmentParent.getAllChildren(), cleanTimeValues);
+        removePrunedNodes(cleanTimeValues);
+
+        cleanTimeValues.spareNesting = popNesting(cleanTimeValues);
+        htmlTokenizer.releaseWorkingBuffer();
+        return fragmentParent.detachChildren(0);
+    }
+
+    /**
+     * Adds the nodes left in the list once all the tags are closed to the specified node, the same
+     * way they are added to the body of the document.
+     */
+    private void addTopLevelNodes(TagNode tagNode, List<BaseToken> nodeList) {
+        for (BaseToken item : nodeList) {
+            if ( item != null && !(item instanceof ContentNode && "".equals(item.toString())) ) {
+                tagNode.addChild(item);
+            }
+        }
+    }
+
+    /**
+     * Removes nodes marked to be pruned from the tree.
+     */
+    private void removePrunedNodes(CleanTimeValues cleanTimeValues) {
+        // if there are some nodes to prune from tree, each parent's children are compacted at once
         if (cleanTimeValues.pruneNodeSet != null && !cleanTimeValues.pruneNodeSet.isEmpty() ) {
-            Iterator<TagNode> iterator = cleanTimeValues.pruneNodeSet.iterator();
-            while (iterator.hasNext()) {
-                TagNode tagNode = iterator.next();
+            Set<TagNode> parents = new HashSet<TagNode>();
+            for (TagNode tagNode : cleanTimeValues.pruneNodeSet) {
                 TagNode parent = tagNode.getParent();
                 if (parent != null) {
-                    parent.removeChild(tagNode);
+                    parents.add(parent);
                 }
             }
+            for (TagNode parent : parents) {
+                parent.removeChildren(cleanTimeValues.pruneNodeSet);
+            }
         }
+    }
 
-        cleanTimeValues.rootNode.setDocType( htmlTokenizer.getDocType() );
-        popNesting(cleanTimeValues);
-        return cleanTimeValues.rootNode;
+    /**
+     * Cleans the content and passes the result to specified handler as a sequence of balanced
+     * events instead of returning the tree. Tag balancing rules are the same as in other
+     * clean methods.
+     * <p>Events of a top level element are fired as soon as its end tag is read and no other
+     * tag is left open, and the element is dropped afterwards, so only the part of the document
+     * which is not complete yet is kept in memory. The head is fired with the first such element
+     * which belongs to the body. Because of that, head tags found later stay where they are, and
+     * attributes of later html and body tags are not passed. Pruning conditions of the top level
+     * elements only see the siblings which are not fired yet.</p>
+     * <p>Content which is not closed this way, like a document without end tags, is fired once the
+     * whole content is read.</p>
+     * @param reader (not closed)
+     * @param handler Receiver of the cleaned content
+     * @throws IOException
+     */
+    public void clean(Reader reader, CleanedContentHandler handler) throws IOException {
+        CleanTimeValues cleanTimeValues = acquireCleanTimeValues();
+        try {
+            this.transformations = this.properties.getCleanerTransformations();
+            HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, reader, cleanTimeValues);
+            ContentEvents contentEvents = new ContentEvents(handler, htmlTokenizer);
+            cleanTimeValues.contentEvents = contentEvents;
+            TagNode rootNode = clean(htmlTokenizer, cleanTimeValues);
+            if (contentEvents.started) {
+                fireChildEvents(properties.isOmitHtmlEnvelope() ? rootNode : cleanTimeValues.bodyNode, handler);
+                if ( !properties.isOmitHtmlEnvelope() ) {
+                    handler.endElement("body");
+                    handler.endElement("html");
+                }
+            } else {
+                handler.startDocument( rootNode.getDocType() );
+                fireContentEvents(rootNode, handler);
+            }
+            handler.endDocument();
+        } finally {
+            releaseCleanTimeValues(cleanTimeValues);
+        }
     }
 
-	private boolean markNodesToPrune(List nodeList, CleanTimeValues cleanTimeValues) {
-	    boolean nodesPruned = false;
-		for (Object next :nodeList) {
-			if(next instanceof TagNode && !cleanTimeValues.pruneNodeSet.contains(next)){
-    			TagNode node = (TagNode) next;
-    			if(addIfNeededToPruneSet(node, cleanTimeValues)) {
-			        nodesPruned = true;
-    			} else if (!node.isEmpty()){
-    				nodesPruned |= markNodesToPrune(node.getAllChildren(), cleanTimeValues);
-    			}
-    		}
-    	}
-		return nodesPruned;
+    /**
+     * State of the cleaning which passes its result to a content handler.
+     */
+    static class ContentEvents {
+        private final CleanedContentHandler handler;
+        private final HtmlTokenizer htmlTokenizer;
+        /**
+         * events of the document start, the head and the body start are fired already
+         */
+        private boolean started;
+
+        ContentEvents(CleanedContentHandler handler, HtmlTokenizer htmlTokenizer) {
+            this.handler = handler;
+            this.htmlTokenizer = htmlTokenizer;
+        }
+    }
+
+    /**
+     * Fires events of the top level nodes completed so far and drops them from the token list.
+     * @param nodeList
+     * @param position position of the last completed node
+     * @param cleanTimeValues
+     */
+    private void fireCompletedContent(List<?> nodeList, int position, CleanTimeValues cleanTimeValues) {
+        ContentEvents contentEvents = cleanTimeValues.contentEvents;
+        List<Object> completed = new ArrayList<Object>();
+        for (int i = 0; i <= position; i++) {
+            Object item = nodeList.get(i);
+            if (item != null) {
+                completed.add(item);
+                nodeList.set(i, null);
+            }
+        }
+        cleanTimeValues.subtreeConsumed = true;
+
+        createDocumentNodes(completed, cleanTimeValues);
+        markNodesToPrune(completed, cleanTimeValues);
+        removePrunedNodes(cleanTimeValues);
+        // nothing read so far is left outside of the completed nodes
+        cleanTimeValues.pruneNodeSet.clear();
+        cleanTimeValues._headTags.clear();
+
+        CleanedContentHandler handler = contentEvents.handler;
+        if (!contentEvents.started) {
+            contentEvents.started = true;
+            // nodes read from now on stay in the body
+            cleanTimeValues._bodyOpened = true;
+            handler.startDocument( contentEvents.htmlTokenizer.getDocType() );
+            if ( properties.isOmitHtmlEnvelope() ) {
+                cleanTimeValues.headNode.removeAllChildren();
+            } else {
+                addNamespaceAttributes( cleanTimeValues.htmlNode, contentEvents.htmlTokenizer.getNamespacePrefixes() );
+                startContentEvents(cleanTimeValues.htmlNode, handler);
+                fireContentEvents(cleanTimeValues.headNode, handler);
+                startContentEvents(cleanTimeValues.bodyNode, handler);
+            }
+        }
+        fireChildEvents(cleanTimeValues.bodyNode, handler);
+    }
+
+    /**
+     * Children of a node whose events are being fired.
+     */
+    private static class EventFrame {
+        private final TagNode owner;
+        private final List<?> items;
+        private int index;
+
+        EventFrame(TagNode owner) {
+            this.owner = owner;
+            this.items = owner.getAllChildren();
+        }
+    }
+
+    private void fireContentEvents(TagNode rootNode, CleanedContentHandler handler) {
+        // nodes are visited without recursion, since the tree may be very deep
+        LinkedList<EventFrame> frames = new LinkedList<EventFrame>();
+        startContentEvents(rootNode, handler);
+        frames.add( new EventFrame(rootNode) );
+        while ( !frames.isEmpty() ) {
+            EventFrame frame = frames.getLast();
+            if ( frame.index < frame.items.size() ) {
+                Object child = frame.items.get(frame.index++);
+                if (child instanceof TagNode) {
+                    startContentEvents((TagNode) child, handler);
+                    frames.add( new EventFrame((TagNode) child) );
+                } else {
+                    fireTextEvents(child, handler);
+                }
+                continue;
+            }
+
+            frames.removeLast();
+            frame.owner.removeAllChildren();
+            String name = frame.owner.getName();
+            // root node has no name if html envelope is omitted
+            if (name != null) {
+                handler.endElement(name);
+            }
+        }
+    }
+
+    /**
+     * Fires events of all the children of the node, without the node itself, and removes them.
+     */
+    private void fireChildEvents(TagNode parent, CleanedContentHandler handler) {
+        for (Object child : parent.getAllChildren()) {
+            if (child instanceof TagNode) {
+                fireContentEvents((TagNode) child, handler);
+            } else {
+                fireTextEvents(child, handler);
+            }
+        }
+        parent.removeAllChildren();
+    }
+
+    private void fireTextEvents(Object item, CleanedContentHandler handler) {
+        if (item instanceof ContentNode) {
+            handler.characters( ((ContentNode) item).getContent() );
+        } else if (item instanceof CommentNode) {
+            handler.comment( ((CommentNode) item).getContent() );
+        }
+    }
+
+    private void startContentEvents(TagNode tagNode, CleanedContentHandler handler) {
+        String name = tagNode.getName();
+        if (name != null) {
+            handler.startElement( name, tagNode.getAttributes() );
+        }
+    }
+
+    /**
+     * Children of a node being visited while marking nodes to prune.
+     */
+    private static class PruneFrame {
+        private final TagNode owner;
+        private final List<?> items;
+        private int index;
+        /**
+         * some of the items were marked to be pruned
+         */
+        private boolean itemPruned;
+        /**
+         * some of the nodes below the items were marked to be pruned
+         */
+        private boolean descendantPruned;
+
+        PruneFrame(TagNode owner, List<?> items) {
+            this.owner = owner;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Marks nodes to be pruned in a single depth first pass. Conditions may depend on whether the
+     * nodes below or the siblings of a node are pruned, so once the children of a node are visited
+     * and some of them were pruned, the remaining children are checked again, and so is the node itself
+     * if anything below it was pruned.
+     */
+	private void markNodesToPrune(List<?> nodeList, CleanTimeValues cleanTimeValues) {
+	    // nodes are visited without recursion, since the tree may be very deep
+	    LinkedList<PruneFrame> frames = new LinkedList<PruneFrame>();
+	    frames.add( new PruneFrame(null, nodeList) );
+	    while ( !frames.isEmpty() ) {
+	        PruneFrame frame = frames.getLast();
+	        if ( frame.index < frame.items.size() ) {
+	            Object next = frame.items.get(frame.index++);
+	            if ( next instanceof TagNode && cleanTimeValues.pruneNodeSet.contains(next) ) {
+	                // already pruned while tokenizing
+	                frame.itemPruned = true;
+	            } else if ( next instanceof TagNode ) {
+	                TagNode node = (TagNode) next;
+	                if ( addIfNeededToPruneSet(node, cleanTimeValues) ) {
+	                    frame.itemPruned = true;
+	                } else if ( !node.isEmpty() ) {
+	                    frames.add( new PruneFrame(node, node.getAllChildren()) );
+	                }
+	            }
+	            continue;
+	        }
+
+	        frames.removeLast();
+	        if (frame.itemPruned) {
+	            // siblings which were checked before some of the others got pruned
+	            boolean siblingPruned = true;
+	            while (siblingPruned) {
+	                siblingPruned = false;
+	                for (Object item : frame.items) {
+	                    if ( item instanceof TagNode && !cleanTimeValues.pruneNodeSet.contains(item) ) {
+	                        siblingPruned |= addIfNeededToPruneSet((TagNode) item, cleanTimeValues);
+	                    }
+	                }
+	            }
+	        }
+	        if ( frame.owner != null && (frame.itemPruned || frame.descendantPruned) ) {
+	            PruneFrame parentFrame = frames.getLast();
+	            parentFrame.descendantPruned = true;
+	            if ( addIfNeededToPruneSet(frame.owner, cleanTimeValues) ) {
+	                parentFrame.itemPruned = true;
+	            }
+	        }
+	    }
 	}
     /**
      * Assigns root node to internal variable and adds neccessery xmlns
@@ -503,7 +1174,16 @@ public class HtmlCleaner {
                 }
             }
         }
-        Map<String, String> atts = cleanTimeValues.rootNode.getAttributes();
+        addNamespaceAttributes(cleanTimeValues.rootNode, namespacePrefixes);
+    }
+
+    /**
+     * Adds xmlns attributes of the specified prefixes to the node if cleaner is namespaces aware.
+     * @param rootNode
+     * @param namespacePrefixes
+     */
+    private void addNamespaceAttributes(TagNode rootNode, Set<String> namespacePrefixes) {
+        Map<String, String> atts = rootNode.getAttributes();
 
         if (properties.isNamespacesAware() && namespacePrefixes != null) {
             Iterator<String> iterator = namespacePrefixes.iterator();
@@ -514,7 +1194,7 @@ public class HtmlCleaner {
                 // Don't include the XML NS
                 //
                 if ( !atts.containsKey(xmlnsAtt) && !prefix.equals("xml")) {
-                	cleanTimeValues.rootNode.addAttribute(xmlnsAtt, prefix);
+                	rootNode.addAttribute(xmlnsAtt, prefix);
                 }
             }
         }
@@ -572,10 +1252,8 @@ public class HtmlCleaner {
                 }
 
 	    		// iterates through the list of open tags from the end and check if there is some higher
-	    		ListIterator it = getOpenTags(cleanTimeValues).list.listIterator( getOpenTags(cleanTimeValues).list.size() );
-	            while ( it.hasPrevious() ) {
-	            	TagPos currTagPos = (TagPos) it.previous();
-	            	if (tag.isHigher(currTagPos.name)) {
+	            for (TagPos currTagPos = getOpenTags(cleanTimeValues).getLastTagPos(); currTagPos != null; currTagPos = currTagPos.prev) {
+	            	if (tag.isHigher(currTagPos.id)) {
 	            		return currTagPos.position <= fatalTagPositon;
 	            	}
 	            }
@@ -640,9 +1318,13 @@ public class HtmlCleaner {
             if (token instanceof EndTagToken) {
 				EndTagToken endTagToken = (EndTagToken) token;
 				String tagName = endTagToken.getName();
-				TagInfo tag = getTagInfoProvider().getTagInfo(tagName);
+				TagInfo tag = endTagToken.getTagInfo(getTagInfoProvider());
 
-				if ( (tag == null && properties.isOmitUnknownTags()) || (tag != null && tag.isDeprecated() && properties.isOmitDeprecatedTags()) ) {
+				if ( !cleanTimeValues.tagsOverMaxDepth.isEmpty() && cleanTimeValues.tagsOverMaxDepth.peek().equals(tagName) ) {
+				    //start tag was dropped because of the depth limit
+				    cleanTimeValues.tagsOverMaxDepth.pop();
+				    nodeIterator.set(null);
+				} else if ( (tag == null && properties.isOmitUnknownTags()) || (tag != null && tag.isDeprecated() && properties.isOmitDeprecatedTags()) ) {
 				    //tag is either unknown or deprecated, so we just prune the end token out
 				    nodeIterator.set(null);
 				} else if ( tag != null && !tag.allowsBody() ) {
@@ -660,7 +1342,7 @@ public class HtmlCleaner {
                         for (int i = closed.size() - 1; i >= 0; i--) {
                             TagNode closedTag = (TagNode) closed.get(i);
 
-                            if ( i > 0 && tag != null && tag.isContinueAfter(closedTag.getName()) ) {
+                            if ( i > 0 && tag != null && tag.isContinueAfter(closedTag.getTagId()) ) {
                                 // even if pruned still want to allow a continuation.
                                 // the nested tags that were also closed as part of the wrapping html closing.
                                 // TODO: look at reversing hierarchy ( for example, "<b><i></b></i>" reverse to <i><b></b></i> )
@@ -718,19 +1400,26 @@ public class HtmlCleaner {
                         	}
 
                         }
+                        notifySubtreeCompleted(nodeList, matchingPosition.position, cleanTimeValues);
                     }
                 }
 			} else if ( isStartToken(token) ) {
                 TagNode startTagToken = (TagNode) token;
 				String tagName = startTagToken.getName();
-				TagInfo tag = getTagInfoProvider().getTagInfo(tagName);
+				TagInfo tag = startTagToken.getTagInfo(getTagInfoProvider());
 
                 TagPos lastTagPos = getOpenTags(cleanTimeValues).isEmpty() ? null : getOpenTags(cleanTimeValues).getLastTagPos();
-                TagInfo lastTagInfo = lastTagPos == null ? null : getTagInfoProvider().getTagInfo(lastTagPos.name);
+                TagInfo lastTagInfo = lastTagPos == null ? null : lastTagPos.info;
 
                 // add tag to set of all tags
-               
-                cleanTimeValues.allTags.add(tagName);
+                if (cleanTimeValues.allTagIds != null) {
+                    int tagId = startTagToken.getTagId();
+                    if (tagId >= 0) {
+                        cleanTimeValues.allTagIds.set(tagId);
+                    } else if (tagName != null) {
+                        cleanTimeValues.otherTagNames.add(tagName);
+                    }
+                }
 
                 // HTML open tag
                 if ( "html".equals(tagName) ) {
@@ -780,7 +1469,7 @@ public class HtmlCleaner {
                 } else if ( tag != null && lastTagPos != null && tag.isMustCloseTag(lastTagInfo) ) {
                                         //since tag is closed earlier due to incorrect child tag, we store this info
                                         //to reopen it later, on the child close.
-                                        getChildBreaks(cleanTimeValues).addBreak(lastTagPos, new TagPos(nodeIterator.previousIndex(), tag.getName()));
+                                        getChildBreaks(cleanTimeValues).addBreak(lastTagPos, new TagPos(nodeIterator.previousIndex(), startTagToken, tag));
                                         boolean certainty = startTagToken.hasAttribute("id") ? false : true;
                                         properties.fireHtmlError(certainty, (TagNode)nodeList.get(lastTagPos.position), ErrorType.UnpermittedChild);
                                         List closed = closeSnippet(nodeList, lastTagPos, startTagToken, cleanTimeValues);
@@ -794,7 +1483,7 @@ public class HtmlCleaner {
 						List toBeCopied = new ArrayList();
 						while (closedIt.hasPrevious()) {
 							TagNode currStartToken = (TagNode) closedIt.previous();
-							if ( tag.isCopy(currStartToken.getName()) ) {
+							if ( tag.isCopy(currStartToken.getTagId()) ) {
 								toBeCopied.add(0, currStartToken);
 							} else {
 								break;
@@ -825,9 +1514,16 @@ public class HtmlCleaner {
 					TagNode newTagNode = createTagNode(startTagToken);
                     addPossibleHeadCandidate(tag, newTagNode, cleanTimeValues);
                     nodeIterator.set(newTagNode);
+                } else if ( properties.getMaxDepth() > 0 && getOpenTags(cleanTimeValues).size() >= properties.getMaxDepth() ) {
+                    // too deep, tag is dropped and its content goes to the last open tag
+                    if (properties.getLimitPolicy() == LimitPolicy.exception) {
+                        throw new ResourceLimitException("maxDepth", properties.getMaxDepth());
+                    }
+                    cleanTimeValues.tagsOverMaxDepth.push(tagName);
+                    nodeIterator.set(null);
 				// default case - just remember this open tag and go further
                 } else {
-                    getOpenTags(cleanTimeValues).addTag( tagName, nodeIterator.previousIndex() );
+                    getOpenTags(cleanTimeValues).addTag( startTagToken, tag, nodeIterator.previousIndex() );
                 }
 			} else {
 				if (cleanTimeValues._headOpened && !cleanTimeValues._bodyOpened && properties.isKeepWhitespaceAndCommentsInHead()) {
@@ -860,7 +1556,7 @@ public class HtmlCleaner {
 		copy.setAutoGenerated(true);
 		copy.removeAttribute("id");
 		nodeIterator.add(copy);
-		getOpenTags(cleanTimeValues).addTag(closedByPresidence.getName(), nodeIterator.previousIndex());
+		getOpenTags(cleanTimeValues).addTag(copy, copy.getTagInfo(getTagInfoProvider()), nodeIterator.previousIndex());
 	}
 
 	/**
@@ -886,7 +1582,7 @@ public class HtmlCleaner {
 
             if (child instanceof TagNode) {
                 TagNode node = (TagNode) child;
-                TagInfo tag = getTagInfoProvider().getTagInfo( node.getName() );
+                TagInfo tag = node.getTagInfo(getTagInfoProvider());
                 addPossibleHeadCandidate(tag, node, cleanTimeValues);
 			} else {
 				if (child instanceof ContentNode) {
@@ -932,10 +1628,12 @@ public class HtmlCleaner {
 	private List<TagNode> closeSnippet(List nodeList, TagPos tagPos, Object toNode, CleanTimeValues cleanTimeValues) {
 		List<TagNode> closed = new ArrayList<TagNode>();
 		ListIterator it = nodeList.listIterator(tagPos.position);
+		TokenList tokenList = nodeList instanceof TokenList ? (TokenList) nodeList : null;
 
 		TagNode tagNode = null;
 		Object item = it.next();
 		boolean isListEnd = false;
+		boolean isStartClosed = isStartToken(item);
 
 		while ( (toNode == null && !isListEnd) || (toNode != null && item != toNode) ) {
 			if ( isStartToken(item) ) {
@@ -951,7 +1649,7 @@ public class HtmlCleaner {
                 }
 
                 TagNode newTagNode = createTagNode(startTagToken);
-                TagInfo tag = getTagInfoProvider().getTagInfo( newTagNode.getName() );
+                TagInfo tag = newTagNode.getTagInfo(getTagInfoProvider());
                 addPossibleHeadCandidate(tag, newTagNode, cleanTimeValues);
                 if (tagNode != null) {
 					tagNode.addChildren(itemsToMove);
@@ -977,22 +1675,105 @@ public class HtmlCleaner {
                 }
             }
 
+			if (tokenList != null) {
+			    // steps over the nulls left by closing of the nested tags
+			    int closedUntil = tokenList.getClosedUntil( it.previousIndex() );
+			    if (closedUntil > it.nextIndex()) {
+			        it = nodeList.listIterator(closedUntil);
+			    }
+			}
 			if ( it.hasNext() ) {
 				item = it.next();
 			} else {
 				isListEnd = true;
 			}
 		}
+
+		if (tokenList != null && isStartClosed) {
+		    tokenList.setClosed( tagPos.position, isListEnd ? nodeList.size() : it.previousIndex() );
+		}
 		return closed;
     }
 
+    /**
+     * Passes the element just closed by its end tag to the subtree completion listener, if there is one.
+     * If the listener consumes it, it is dropped from the token list and from the head candidates.
+     * Otherwise, if content events are fired while cleaning and no tag is left open, events of the
+     * top level nodes completed so far are fired.
+     */
+    private void notifySubtreeCompleted(List<?> nodeList, int position, CleanTimeValues cleanTimeValues) {
+        SubtreeCompletionListener listener = properties.getSubtreeCompletionListener();
+        Object item = nodeList.get(position);
+        if (listener == null || !(item instanceof TagNode) || !listener.subtreeCompleted((TagNode) item)) {
+            if ( cleanTimeValues.contentEvents != null && isTopLevelCompleted(nodeList, item, cleanTimeValues) ) {
+                fireCompletedContent(nodeList, position, cleanTimeValues);
+            }
+        } else {
+            TagNode subtree = (TagNode) item;
+            nodeList.set(position, null);
+            // whitespace between consumed elements would only pile up in their parent
+            for (int i = position - 1; i >= 0 && nodeList.get(i) instanceof ContentNode && ((ContentNode) nodeList.get(i)).isBlank(); i--) {
+                nodeList.set(i, null);
+            }
+            for (Iterator<?> it = cleanTimeValues._headTags.iterator(); it.hasNext();) {
+                for (TagNode node = (TagNode) it.next(); node != null; node = node.getParent()) {
+                    if (node == subtree) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+            cleanTimeValues.subtreeConsumed = true;
+        }
+    }
+
+    /**
+     * Checks if the element just closed is on the top level of the document, and whether the head
+     * may be considered complete once it is.
+     */
+    private boolean isTopLevelCompleted(List<?> nodeList, Object item, CleanTimeValues cleanTimeValues) {
+        if ( nodeList != cleanTimeValues.contentEvents.htmlTokenizer.getTokenList() || cleanTimeValues.nestingStates.size() != 1
+                || !getOpenTags(cleanTimeValues).isEmpty() || !getChildBreaks(cleanTimeValues).isEmpty() ) {
+            return false;
+        }
+        if (cleanTimeValues._bodyOpened || !(item instanceof TagNode)) {
+            return true;
+        }
+        // head is only complete once there is an element which belongs to the body
+        TagInfo tag = ((TagNode) item).getTagInfo( getTagInfoProvider() );
+        return tag == null || !(tag.isHeadTag() || tag.isHeadAndBodyTag());
+    }
+
+    /**
+     * Removes the nulls left at the end of the token list by consumed subtrees, so that the list doesn't
+     * grow with the document when the subtree completion listener consumes its content.
+     */
+    void trimTokenList(List<?> nodeList, CleanTimeValues cleanTimeValues) {
+        // child breaks refer to closed tags by position, which must not be taken by other tokens
+        if (cleanTimeValues.subtreeConsumed && nodeList instanceof TokenList && getChildBreaks(cleanTimeValues).isEmpty()) {
+            ((TokenList) nodeList).trimTrailingNulls();
+            cleanTimeValues.subtreeConsumed = false;
+        }
+    }
+
     /**
      * Close all unclosed tags if there are any.
      */
     private void closeAll(List nodeList, CleanTimeValues cleanTimeValues) {
+        closeAll(nodeList, Collections.<TagNode>emptyList(), cleanTimeValues);
+    }
+
+    /**
+     * Close all unclosed tags if there are any.
+     * @param expectedOpen tags which are not reported as unclosed
+     */
+    private void closeAll(List<?> nodeList, List<TagNode> expectedOpen, CleanTimeValues cleanTimeValues) {
         TagPos firstTagPos = getOpenTags(cleanTimeValues).findFirstTagPos();
-        for (TagPos pos : getOpenTags(cleanTimeValues).list) {
-            properties.fireHtmlError(true, (TagNode)nodeList.get(pos.position), ErrorType.UnclosedTag);
+        for (TagPos pos = firstTagPos; pos != null; pos = pos.next) {
+            TagNode tagNode = (TagNode) nodeList.get(pos.position);
+            if ( !expectedOpen.contains(tagNode) ) {
+                properties.fireHtmlError(true, tagNode, ErrorType.UnclosedTag);
+            }
         }
         if (firstTagPos != null) {
             closeSnippet(nodeList, firstTagPos, null, cleanTimeValues);
@@ -1006,6 +1787,10 @@ public class HtmlCleaner {
      */
     private void addPossibleHeadCandidate(TagInfo tagInfo, TagNode tagNode, CleanTimeValues cleanTimeValues) {
         if (tagInfo != null && tagNode != null) {
+            if ( cleanTimeValues.contentEvents != null && cleanTimeValues.contentEvents.started ) {
+                // head is fired already
+                return;
+            }
             if ( tagInfo.isHeadTag() || (tagInfo.isHeadAndBodyTag() && cleanTimeValues._headOpened && !cleanTimeValues._bodyOpened) ) {
             	cleanTimeValues._headTags.add(tagNode);
             }
@@ -1055,8 +1840,66 @@ public class HtmlCleaner {
         return false;
     }
 
+    /**
+     * Finds the prune condition which removes the specified tag by its name alone, so it is known
+     * as soon as the start tag is read.
+     * @return matching condition, or null if there is none
+     */
+    private ITagNodeCondition findNamePruneCondition(TagNode tagNode, CleanTimeValues cleanTimeValues) {
+        if ( cleanTimeValues.pruneTagSet != null ) {
+            for(ITagNodeCondition condition: cleanTimeValues.pruneTagSet) {
+                if ( condition instanceof TagNodeNameCondition && condition.satisfy(tagNode) ) {
+                    return condition;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the specified start tag is pruned by its name, regardless of its content
+     */
+    boolean isPrunedByName(TagNode startTagToken, CleanTimeValues cleanTimeValues) {
+        return findNamePruneCondition(startTagToken, cleanTimeValues) != null;
+    }
+
+    /**
+     * Checks if the content following the specified start tag, which is pruned by its name, ends up
+     * inside of it, so the tokenizer may drop the content right away. The tag is then marked to be
+     * pruned at once, since it is no longer complete.
+     * @param nodeList
+     * @param startTagToken
+     * @param cleanTimeValues
+     * @return true if the tag is the last open one
+     */
+    boolean isContentPruned(List<?> nodeList, TagNode startTagToken, CleanTimeValues cleanTimeValues) {
+        TagPos last = getOpenTags(cleanTimeValues).getLastTagPos();
+        if ( last == null || nodeList.get(last.position) != startTagToken ) {
+            return false;
+        }
+        if ( !startTagToken.isPruned() ) {
+            addPruneNode(startTagToken, cleanTimeValues);
+            properties.fireConditionModification(findNamePruneCondition(startTagToken, cleanTimeValues), startTagToken);
+        }
+        return true;
+    }
+
+    /**
+     * Collects names of all the start tags found in the content, which are tracked only if
+     * {@link CleanerProperties#isTrackAllTags()} is set.
+     * @param cleanTimeValues
+     * @return sorted tag names, empty if tags are not tracked
+     */
     public Set<String> getAllTags(CleanTimeValues cleanTimeValues) {
-		return cleanTimeValues.allTags;
+        Set<String> allTags = new TreeSet<String>();
+        if (cleanTimeValues.allTagIds != null) {
+            BitSet tagIds = cleanTimeValues.allTagIds;
+            for (int id = tagIds.nextSetBit(0); id >= 0; id = tagIds.nextSetBit(id + 1)) {
+                allTags.add( TagNameSet.getName(id) );
+            }
+            allTags.addAll(cleanTimeValues.otherTagNames);
+        }
+		return allTags;
 	}
 
     /**
@@ -1073,6 +1916,10 @@ public class HtmlCleaner {
         return transformations;
     }
 
+    NameTable getNameTable() {
+        return nameTable;
+    }
+
     /**
      * For the specified node, returns it's content as string.
      * @param node
@@ -1098,22 +1945,15 @@ public class HtmlCleaner {
      */
     public void setInnerHtml(TagNode node, String content) {
         if (node != null) {
-            String nodeName = node.getName();
-            StringBuilder html = new StringBuilder();
-            html.append("<").append(nodeName).append(" " +MARKER_ATTRIBUTE +"=''>").append(content).append("</").append(nodeName).append(">");
-            TagNode parent = node.getParent();
-            while (parent != null) {
-                String parentName = parent.getName();
-                html.insert(0, "<" + parentName + ">");
-                html.append("</").append(parentName).append(">");
-                parent = parent.getParent();
-            }
-
-            TagNode innerRootNode = clean( html.toString() );
-            TagNode cleanedNode = innerRootNode.findElementHavingAttribute(MARKER_ATTRIBUTE, true);
-            if (cleanedNode != null) {
-                node.setChildren( cleanedNode.getAllChildren() );
+            List<BaseToken> children;
+            try {
+                children = cleanFragment( node, new StringReader(content) );
+            } catch (IOException e) {
+                // should never happen because there is no reading
+                throw new HtmlCleanerException(e);
             }
+            node.removeAllChildren();
+            node.addChildren(children);
         }
     }
     /**
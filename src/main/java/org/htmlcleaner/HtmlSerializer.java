@@ -68,7 +68,7 @@ public abstract class HtmlSerializer extends Serializer {
 
 
     protected boolean isMinimizedTagSyntax(TagNode tagNode) {
-        final TagInfo tagInfo = props.getTagInfoProvider().getTagInfo(tagNode.getName());
+        final TagInfo tagInfo = tagNode.getTagInfo(props.getTagInfoProvider());
         return tagInfo != null && !tagNode.hasChildren() && tagInfo.isEmptyTag();
     }
 
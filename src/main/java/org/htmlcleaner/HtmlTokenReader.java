@@ -0,0 +1,149 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * Pull reader over the tokens of the HTML document. It uses the same lexing rules as
+ * {@link HtmlCleaner}, but tokens are handed to the caller one by one and they are not
+ * retained, so no tree is built and document of any size is read in constant memory.
+ * </p>
+ * <p>
+ * Each call to {@link #next()} returns one of the following tokens:
+ * <ul>
+ *      <li>{@link TagNode} - start tag, with its attributes</li>
+ *      <li>{@link EndTagToken} - end tag</li>
+ *      <li>{@link ContentNode} - text</li>
+ *      <li>{@link CommentNode} - comment</li>
+ *      <li>{@link DoctypeToken} - doctype declaration</li>
+ * </ul>
+ * Tokens are neither balanced nor filtered - that is the job of the cleaner.
+ * </p>
+ * <xmp>
+ *   HtmlTokenReader tokenReader = new HtmlTokenReader(reader, props);
+ *   while ( tokenReader.hasNext() ) {
+ *       BaseToken token = tokenReader.next();
+ *       if (token instanceof TagNode) {
+ *           String href = ((TagNode) token).getAttributeByName("href");
+ *           ...
+ *       }
+ *   }
+ *   tokenReader.close();
+ * </xmp>
+ */
+public class HtmlTokenReader {
+
+    private final LinkedList<BaseToken> pending = new LinkedList<BaseToken>();
+
+    private final HtmlTokenizer tokenizer;
+
+    private DoctypeToken docType;
+
+    private boolean initialized;
+
+    private boolean finished;
+
+    /**
+     * Creates token reader with default cleaner properties.
+     * @param reader
+     */
+    public HtmlTokenReader(Reader reader) {
+        this(reader, new CleanerProperties());
+    }
+
+    /**
+     * Creates token reader using lexing options and tag transformations from specified properties.
+     * @param reader
+     * @param props
+     */
+    public HtmlTokenReader(Reader reader, CleanerProperties props) {
+        this.tokenizer = new HtmlTokenizer(reader, props, props.getCleanerTransformations(), props.getTagInfoProvider()) {
+            @Override
+            void handleToken(BaseToken token) {
+                pending.add(token);
+            }
+        };
+    }
+
+    /**
+     * @return true if there are more tokens to read.
+     * @throws IOException
+     */
+    public boolean hasNext() throws IOException {
+        if (!initialized) {
+            initialized = true;
+            tokenizer.init();
+        }
+
+        while ( pending.isEmpty() && !finished ) {
+            finished = !tokenizer.step();
+            DoctypeToken currDocType = tokenizer.getDocType();
+            if (currDocType != null && currDocType != docType) {
+                docType = currDocType;
+                pending.add(0, docType);
+            }
+        }
+
+        return !pending.isEmpty();
+    }
+
+    /**
+     * @return Next token from the content.
+     * @throws IOException
+     * @throws NoSuchElementException if there are no more tokens
+     */
+    public BaseToken next() throws IOException {
+        if ( !hasNext() ) {
+            throw new NoSuchElementException();
+        }
+
+        return pending.removeFirst();
+    }
+
+    /**
+     * Closes underlying reader.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        finished = true;
+        pending.clear();
+        tokenizer.close();
+    }
+
+}
@@ -38,6 +38,11 @@
 package org.htmlcleaner;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.*;
 
 /**
@@ -53,33 +58,147 @@ import java.util.*;
  */
 public class HtmlTokenizer {
 
-	private final static int WORKING_BUFFER_SIZE = 1024;
+	/**
+	 * Working buffer size used when size of the content is not known in advance.
+	 */
+	final static int WORKING_BUFFER_SIZE = 1024;
+	/**
+	 * Largest working buffer allocated for the content of known size.
+	 */
+	final static int MAX_WORKING_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Smallest allowed working buffer, must be larger than the longest lookahead.
+	 */
+	final static int MIN_WORKING_BUFFER_SIZE = 64;
+	/**
+	 * Returned by read when content is fed incrementally and the next portion hasn't arrived yet.
+	 */
+	private final static int NO_INPUT_YET = -2;
+
+	private final static InputFilter[] NO_FILTERS = new InputFilter[0];
+	private final static char[] NO_FILTERED_CHARS = new char[0];
+
+	private final static byte WHITESPACE = 1;
+	private final static byte IDENTIFIER_START = 2;
+	private final static byte IDENTIFIER_PART = 4;
+
+	/**
+	 * Classification of ASCII characters, the same as the one done by the character methods
+	 * for the rest of the characters.
+	 */
+	private final static byte[] ASCII_TYPES = new byte[128];
+
+    static {
+        for (char ch = 0; ch < ASCII_TYPES.length; ch++) {
+            byte type = 0;
+            if ( isWhitespaceChar(ch) ) {
+                type |= WHITESPACE;
+            }
+            if ( Character.isUnicodeIdentifierStart(ch) ) {
+                type |= IDENTIFIER_START;
+            }
+            if ( isIdentifierPartChar(ch) ) {
+                type |= IDENTIFIER_PART;
+            }
+            ASCII_TYPES[ch] = type;
+        }
+    }
 
-    private BufferedReader _reader;
-    private char[] _working = new char[WORKING_BUFFER_SIZE];
+    private Reader _reader;
+    private CharSequence _content;
+    private int _contentPos;
+    private ByteBuffer _bytes;
+    private CharsetDecoder _decoder;
+    private int _pendingChar = -1;
+    private InputFilter[] _filters;
+    private char[] _filterPrevious;
+    private char[] _working;
+    /**
+     * working buffer was allocated by the tokenizer, so it may be reused once the tokenizer is done
+     */
+    private boolean _isWorkingOwned;
+    private long _sizeHint = -1;
+
+    /**
+     * Content fed to the incremental tokenizer which is not in the working buffer yet, null if
+     * content is not fed incrementally.
+     */
+    private LinkedList<CharBuffer> _chunks;
+    private boolean _isInputFinished;
+    private Checkpoint _checkpoint;
+    private List<BaseToken> _stepTokens;
 
     private transient int _pos;
     private transient int _len = -1;
-    private transient int _row = 1;
-    private transient int _col = 1;
+    /**
+     * End of the valid characters in the working buffer, smaller than the buffer length only
+     * when content is fed incrementally or the end of the content is reached.
+     */
+    private transient int _limit;
+
+    /**
+     * Offset of the first character of the working buffer from the beginning of the content.
+     */
+    private transient long _bufferOffset;
+    /**
+     * Offset of the current token from the beginning of the content.
+     */
+    private transient long _tokenStart;
+    /**
+     * Line beginnings of the content, only if positions are tracked. Tokens keep just their offsets,
+     * and resolve them to rows and columns when asked.
+     */
+    private transient LineStarts _lineStarts;
+    /**
+     * line beginnings are recorded as the characters are read
+     */
+    private transient boolean _isRecordingLines;
     
 
-    private transient StringBuffer _saved = new StringBuffer(512);
+    /**
+     * Saved characters are always contiguous part of the working buffer, from _savedStart
+     * (inclusive) to _savedEnd (exclusive). They are converted to string only when needed.
+     */
+    private transient int _savedStart = -1;
+    private transient int _savedEnd = -1;
 
     private transient boolean _isLateForDoctype;
     private transient DoctypeToken _docType;
     private transient TagToken _currentTagToken;
-    private transient List<BaseToken> _tokenList = new ArrayList<BaseToken>();
-    private transient Set<String> _namespacePrefixes = new HashSet<String>();
+    private transient List<BaseToken> _tokenList;
+    private transient Set<String> _namespacePrefixes;
 
     private boolean _asExpected = true;
 
-    private boolean _isScriptContext;
+    /**
+     * Lower case beginning of the end tag which closes current script or style content, null
+     * outside of such content.
+     */
+    private String _rawTextEnd;
+
+    private boolean _isScriptEmpty = true;
+    private BaseToken _lastToken;
+
+    /**
+     * Start tag pruned by its name, whose text content is dropped instead of being tokenized.
+     * It is null if the last token isn't such start tag.
+     */
+    private TagNode _prunedTag;
+
+    /**
+     * Tags open before the content starts, null unless a fragment of the document is tokenized.
+     */
+    private List<TagNode> _contextTags;
+
+    private int _tokenCount;
+    private int _textLength;
 
     private HtmlCleaner cleaner;
     private CleanerProperties props;
     private CleanerTransformations transformations;
+    private ITagInfoProvider tagInfoProvider;
     private CleanTimeValues cleanTimeValues;
+    private NameTable nameTable;
 
 
     /**
@@ -88,32 +207,206 @@ public class HtmlTokenizer {
      * @param reader
      */
     public HtmlTokenizer(HtmlCleaner cleaner, Reader reader, final CleanTimeValues cleanTimeValues) {
-        this._reader = new BufferedReader(reader);
+        this(reader, cleaner.getProperties(), cleaner.getTransformations(), cleaner.getTagInfoProvider());
         this.cleaner = cleaner;
-        this.props = cleaner.getProperties();
-        this.transformations = cleaner.getTransformations();
         this.cleanTimeValues = cleanTimeValues;
+        this.nameTable = cleaner.getNameTable();
+        // structures are shared by the tokenizers using the same values, one after another
+        if (cleanTimeValues.tokenList == null) {
+            cleanTimeValues.tokenList = new TokenList();
+        }
+        if (cleanTimeValues.namespacePrefixes == null) {
+            cleanTimeValues.namespacePrefixes = new HashSet<String>();
+        }
+        this._tokenList = cleanTimeValues.tokenList;
+        this._namespacePrefixes = cleanTimeValues.namespacePrefixes;
+    }
+
+    /**
+     * Constructor - creates instance of the parser which is not bound to any cleaner. Recognized
+     * tokens are passed to {@link #handleToken(BaseToken)} which has to be overridden.
+     * @param reader
+     * @param props
+     * @param transformations
+     * @param tagInfoProvider
+     */
+    HtmlTokenizer(Reader reader, CleanerProperties props, CleanerTransformations transformations, ITagInfoProvider tagInfoProvider) {
+        this._reader = reader;
+        this.props = props;
+        this.transformations = transformations;
+        this.tagInfoProvider = tagInfoProvider;
+    }
+
+    /**
+     * Constructor - creates instance of the parser with content which is already in memory.
+     * Content is copied directly to the working buffer, portion by portion.
+     * @param cleaner
+     * @param content
+     * @param cleanTimeValues
+     */
+    HtmlTokenizer(HtmlCleaner cleaner, CharSequence content, final CleanTimeValues cleanTimeValues) {
+        this(cleaner, (Reader) null, cleanTimeValues);
+        this._content = content;
+        this._sizeHint = content.length();
+    }
+
+    /**
+     * Constructor - creates instance of the parser with encoded content, typically mapped from a file.
+     * Bytes are decoded directly to the working buffer, portion by portion. ISO-8859-1 bytes are
+     * converted without decoder.
+     * @param cleaner
+     * @param content
+     * @param charset
+     * @param cleanTimeValues
+     */
+    HtmlTokenizer(HtmlCleaner cleaner, ByteBuffer content, Charset charset, final CleanTimeValues cleanTimeValues) {
+        this(cleaner, (Reader) null, cleanTimeValues);
+        this._bytes = content;
+        if ( !"ISO-8859-1".equals(charset.name()) ) {
+            // malformed input is replaced, the same way InputStreamReader does
+            this._decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        this._sizeHint = content.remaining();
+    }
+
+    /**
+     * Constructor - creates instance of the parser which scans specified part of the array directly,
+     * without copying it. The array is never modified.
+     * @param cleaner
+     * @param content
+     * @param offset
+     * @param length
+     * @param cleanTimeValues
+     */
+    HtmlTokenizer(HtmlCleaner cleaner, char[] content, int offset, int length, final CleanTimeValues cleanTimeValues) {
+        this(cleaner, (Reader) null, cleanTimeValues);
+        this._working = content;
+        this._pos = offset;
+        this._len = offset + length;
+        this._limit = _len;
+        this._bufferOffset = -offset;
+    }
+
+    /**
+     * Constructor - creates instance of the parser to which content is fed incrementally,
+     * using {@link #feed(CharBuffer)} and {@link #finish()}.
+     * @param cleaner
+     * @param cleanTimeValues
+     */
+    HtmlTokenizer(HtmlCleaner cleaner, final CleanTimeValues cleanTimeValues) {
+        this(cleaner, (Reader) null, cleanTimeValues);
+        this._chunks = new LinkedList<CharBuffer>();
+        this._checkpoint = new Checkpoint();
+        this._stepTokens = new ArrayList<BaseToken>();
+    }
+
+    /**
+     * Makes the content a fragment of the document placed inside specified tags, which are passed
+     * to the cleaner as open before the content is tokenized.
+     * @param contextTags start tags of the enclosing elements, the outermost first, tags which
+     * can't stay open are removed by the cleaner
+     */
+    void setContextTags(List<TagNode> contextTags) {
+        this._contextTags = contextTags;
+    }
+
+    /**
+     * Sets expected length of the content, used to choose size of the working buffer.
+     * @param sizeHint expected number of characters, or non-positive value if unknown
+     */
+    void setSizeHint(long sizeHint) {
+        this._sizeHint = sizeHint;
+    }
+
+    /**
+     * Calculates size of the working buffer. Explicitly configured size is used as it is,
+     * otherwise buffer grows with the expected content length so that smaller documents are
+     * read at once, and larger ones with less refills.
+     * @param configuredSize buffer size from the properties, 0 for adaptive size
+     * @param sizeHint expected number of characters, or non-positive value if unknown
+     * @return size of the working buffer
+     */
+    static int calculateBufferSize(int configuredSize, long sizeHint) {
+        if (configuredSize > 0) {
+            return Math.max(configuredSize, MIN_WORKING_BUFFER_SIZE);
+        }
+        if (sizeHint <= 0) {
+            return WORKING_BUFFER_SIZE;
+        }
+        // one more char so the end of content is detected by the first read
+        return (int) Math.max(WORKING_BUFFER_SIZE, Math.min(sizeHint + 1, MAX_WORKING_BUFFER_SIZE));
     }
 
     private void addToken(BaseToken token) {
-        token.setRow(_row);
-        token.setCol(_col);
+        if (props.getMaxTokens() > 0 && _tokenCount >= props.getMaxTokens()) {
+            limitReached("maxTokens", props.getMaxTokens());
+            stop();
+            return;
+        }
+        _tokenCount++;
+        if (_lineStarts != null && token instanceof BaseTokenImpl) {
+            ((BaseTokenImpl) token).setPosition(_lineStarts, _tokenStart);
+        }
+        _lastToken = token;
+        if (token instanceof TagToken) {
+            _prunedTag = null;
+        }
+        if (_stepTokens != null) {
+            // handled once the step is complete, since it may be repeated when more content arrives
+            _stepTokens.add(token);
+        } else {
+            handleToken(token);
+        }
+    }
+
+    /**
+     * Receives every token as soon as it is recognized. By default token is added to the
+     * token list and cleaner is invoked to clean current list at the end.
+     * @param token
+     */
+    void handleToken(BaseToken token) {
         _tokenList.add(token);
         cleaner.makeTree( _tokenList, _tokenList.listIterator(_tokenList.size() - 1), this.cleanTimeValues );
+        cleaner.trimTokenList( _tokenList, this.cleanTimeValues );
     }
 
     private void readIfNeeded(int neededChars) throws IOException {
-        if (_len == -1 && _pos + neededChars >= WORKING_BUFFER_SIZE) {
-            int numToCopy = WORKING_BUFFER_SIZE - _pos;
-            System.arraycopy(_working, _pos, _working, 0, numToCopy);
-            _pos = 0;
+        if (_len == -1 && _pos + neededChars >= _limit) {
+            // saved characters of the current token must stay in the buffer
+            int keepFrom = _savedStart >= 0 ? Math.min(_savedStart, _pos) : _pos;
+            if (_checkpoint != null && _checkpoint.pos >= 0 && _checkpoint.pos < keepFrom) {
+                keepFrom = _checkpoint.pos;
+            }
+            int numToCopy = _limit - keepFrom;
+            char[] target = _working;
+            if (numToCopy > _working.length / 2) {
+                target = new char[_working.length * 2];
+            }
+            if (keepFrom > 0 || target != _working) {
+                System.arraycopy(_working, keepFrom, target, 0, numToCopy);
+            }
+            _working = target;
+            _pos -= keepFrom;
+            _bufferOffset += keepFrom;
+            if (_savedStart >= 0) {
+                _savedStart -= keepFrom;
+                _savedEnd -= keepFrom;
+            }
+            if (_checkpoint != null && _checkpoint.pos >= 0) {
+                _checkpoint.pos -= keepFrom;
+            }
 
-            int expected = WORKING_BUFFER_SIZE - numToCopy;
+            int expected = _working.length - numToCopy;
             int size = 0;
             int charsRead = 0;
             int offset = numToCopy;
             do {
-                charsRead = _reader.read(_working, offset, expected);
+                charsRead = read(_working, offset, expected);
+                if (charsRead > 0 && _filters.length > 0) {
+                    charsRead = filter(offset, offset + charsRead) - offset;
+                }
                 if (charsRead >= 0) {
                     size += charsRead;
                     offset += charsRead;
@@ -121,19 +414,142 @@ public class HtmlTokenizer {
                 }
             } while (charsRead >= 0 && expected > 0);
 
-            if (expected > 0) {
-    		_len = size + numToCopy;
-    		
+            _limit = size + numToCopy;
+            if (_isRecordingLines) {
+                _lineStarts.add(_working, numToCopy, _limit, _bufferOffset);
             }
+            if (charsRead == -1) {
+    		_len = _limit;
+            } else if (charsRead == NO_INPUT_YET && _pos + neededChars >= _limit) {
+                throw NeedMoreInput.INSTANCE;
+            }
+        }
+    }
 
-            // convert invalid XML characters to spaces
-            for (int i = 0; i < (_len >= 0 ? _len : WORKING_BUFFER_SIZE); i++) {
-                int ch = _working[i];
-                if (ch >= 1 && ch <= 32 && ch != 10 && ch != 13) {
-                    _working[i] = ' ';
-                }
+    /**
+     * Reads next portion of the content either from the reader or from the in-memory content.
+     * @return number of characters read, or -1 if end of content is reached
+     * @throws IOException
+     */
+    private int read(char[] buffer, int offset, int length) throws IOException {
+        if (_reader != null) {
+            return _reader.read(buffer, offset, length);
+        }
+        if (_bytes != null) {
+            return decode(buffer, offset, length);
+        }
+        if (_chunks != null) {
+            return readChunks(buffer, offset, length);
+        }
+
+        int count = Math.min(length, _content.length() - _contentPos);
+        if (count <= 0) {
+            return -1;
+        }
+
+        int end = _contentPos + count;
+        if (_content instanceof String) {
+            ((String) _content).getChars(_contentPos, end, buffer, offset);
+        } else if (_content instanceof StringBuilder) {
+            ((StringBuilder) _content).getChars(_contentPos, end, buffer, offset);
+        } else if (_content instanceof StringBuffer) {
+            ((StringBuffer) _content).getChars(_contentPos, end, buffer, offset);
+        } else {
+            for (int i = _contentPos; i < end; i++) {
+                buffer[offset++] = _content.charAt(i);
             }
         }
+        _contentPos = end;
+
+        return count;
+    }
+
+    /**
+     * Reads next portion of the content fed so far.
+     * @return number of characters read, -1 if end of content is reached, or {@link #NO_INPUT_YET}
+     */
+    private int readChunks(char[] buffer, int offset, int length) {
+        int count = 0;
+        while (count < length && !_chunks.isEmpty()) {
+            CharBuffer chunk = _chunks.getFirst();
+            int size = Math.min(length - count, chunk.remaining());
+            chunk.get(buffer, offset + count, size);
+            count += size;
+            if (!chunk.hasRemaining()) {
+                _chunks.removeFirst();
+            }
+        }
+        if (count > 0) {
+            return count;
+        }
+        return _isInputFinished ? -1 : NO_INPUT_YET;
+    }
+
+    /**
+     * Applies input filters to the characters which have just been read.
+     * @return index after the last filtered character
+     */
+    private int filter(int start, int end) {
+        for (int i = 0; i < _filters.length && end > start; i++) {
+            char last = _working[end - 1];
+            end = _filters[i].filter(_working, start, end, _filterPrevious[i]);
+            _filterPrevious[i] = last;
+        }
+        return end;
+    }
+
+    /**
+     * Decodes next portion of the encoded content.
+     * @return number of characters decoded, or -1 if end of content is reached
+     */
+    private int decode(char[] buffer, int offset, int length) {
+        if (_decoder == null) {
+            int count = Math.min(length, _bytes.remaining());
+            if (count == 0) {
+                return -1;
+            }
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (char) (_bytes.get() & 0xFF);
+            }
+            return count;
+        }
+
+        CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+        if (_pendingChar >= 0) {
+            out.put((char) _pendingChar);
+            _pendingChar = -1;
+        }
+        if (_bytes.hasRemaining()) {
+            _decoder.decode(_bytes, out, true);
+        }
+        if (out.hasRemaining() && _bytes.hasRemaining()) {
+            // surrogate pair doesn't fit into the last free place, second char is kept for the next time
+            CharBuffer pair = CharBuffer.allocate(2);
+            _decoder.decode(_bytes, pair, true);
+            pair.flip();
+            if (pair.hasRemaining()) {
+                out.put(pair.get());
+            }
+            if (pair.hasRemaining()) {
+                _pendingChar = pair.get();
+            }
+        }
+        if (!_bytes.hasRemaining()) {
+            _decoder.flush(out);
+        }
+
+        int count = out.position() - offset;
+        return count == 0 && !_bytes.hasRemaining() && _pendingChar < 0 ? -1 : count;
+    }
+
+    /**
+     * Invalid XML characters are treated as spaces. Conversion is done when character is
+     * taken from the working buffer, since the buffer may be owned by the caller.
+     * @param ch
+     * @return space if specified character is not valid in XML, the character itself otherwise
+     */
+    private static char sanitize(char ch) {
+        return ch >= 1 && ch <= 32 && ch != 10 && ch != 13 ? ' ' : ch;
     }
 
     List<BaseToken> getTokenList() {
@@ -154,8 +570,8 @@ public class HtmlTokenizer {
     }
 
     /**
-     * Checks if content starts with specified value at the current position.
-     * @param value
+     * Checks if content starts with specified value at the current position, ignoring case.
+     * @param value lower case value
      * @return true if starts with specified value, false otherwise.
      * @throws IOException
      */
@@ -167,9 +583,13 @@ public class HtmlTokenizer {
         }
 
         for (int i = 0; i < valueLen; i++) {
-        	char ch1 = Character.toLowerCase( value.charAt(i) );
-        	char ch2 = Character.toLowerCase( _working[_pos + i] );
-        	if (ch1 != ch2) {
+        	char ch = _working[_pos + i];
+        	if (ch >= 'A' && ch <= 'Z') {
+        	    ch += 'a' - 'A';
+        	} else if (ch >= 128) {
+        	    ch = Character.toLowerCase(ch);
+        	}
+        	if (value.charAt(i) != ch) {
         		return false;
         	}
         }
@@ -177,6 +597,15 @@ public class HtmlTokenizer {
         return true;
     }
 
+    private static boolean isWhitespaceChar(char ch) {
+        // invalid XML characters count as spaces
+        return (ch >= 1 && ch <= 32) || Character.isWhitespace(ch);
+    }
+
+    private static boolean isIdentifierPartChar(char ch) {
+        return Character.isUnicodeIdentifierStart(ch) || Character.isDigit(ch) || Utils.isIdentifierHelperChar(ch);
+    }
+
     /**
      * Checks if character at specified position is whitespace.
      * @param position
@@ -187,7 +616,8 @@ public class HtmlTokenizer {
             return false;
         }
 
-        return Character.isWhitespace( _working[position] );
+        char ch = _working[position];
+        return ch < 128 ? (ASCII_TYPES[ch] & WHITESPACE) != 0 : isWhitespaceChar(ch);
     }
 
     /**
@@ -201,7 +631,7 @@ public class HtmlTokenizer {
     /**
      * Checks if character at specified position is equal to specified char.
      * @param position
-     * @param ch
+     * @param ch character which is not a letter, so no case conversion is needed
      * @return true is equals, false otherwise.
      */
     private boolean isChar(int position, char ch) {
@@ -209,7 +639,7 @@ public class HtmlTokenizer {
             return false;
         }
 
-        return Character.toLowerCase(ch) == Character.toLowerCase(_working[position]);
+        return ch == _working[position];
     }
 
     /**
@@ -232,7 +662,7 @@ public class HtmlTokenizer {
         }
 
         char ch = _working[position];
-        return Character.isUnicodeIdentifierStart(ch);
+        return ch < 128 ? (ASCII_TYPES[ch] & IDENTIFIER_START) != 0 : Character.isUnicodeIdentifierStart(ch);
     }
 
     /**
@@ -253,7 +683,7 @@ public class HtmlTokenizer {
         }
 
         char ch = _working[_pos];
-        return Character.isUnicodeIdentifierStart(ch) || Character.isDigit(ch) || Utils.isIdentifierHelperChar(ch);
+        return ch < 128 ? (ASCII_TYPES[ch] & IDENTIFIER_PART) != 0 : isIdentifierPartChar(ch);
     }
 
     /**
@@ -264,47 +694,81 @@ public class HtmlTokenizer {
     }
 
     /**
-     * Saves specified character to the temporary buffer.
-     * @param ch
+     * Adds character at specified position to the saved characters. Since saved characters
+     * are kept as a range of the working buffer, position must follow the last saved one.
+     * @param position
      */
-    private void save(char ch) {
-        updateCoordinates(ch);
-        _saved.append(ch);
+    private void save(int position) {
+        if (_savedStart < 0) {
+            _savedStart = position;
+        }
+        _savedEnd = position + 1;
     }
 
     /**
-     * Looks onto the char passed and updates current position coordinates. 
-     * If char is a line break, increments row coordinate, if not -- col coordinate. 
-     * 
-     * @param ch - char to analyze.
+     * Adds specified range of the working buffer to the saved characters. Range must follow
+     * the last saved character.
+     * @param start
+     * @param end
+     */
+    private void save(int start, int end) {
+        if (_savedStart < 0) {
+            _savedStart = start;
+        }
+        _savedEnd = end;
+    }
+
+    private int savedLength() {
+        return _savedStart < 0 ? 0 : _savedEnd - _savedStart;
+    }
+
+    private void clearSaved() {
+        _savedStart = -1;
+        _savedEnd = -1;
+    }
+
+    private String savedText() {
+        return savedLength() > 0 ? text(_savedStart, _savedEnd) : "";
+    }
+
+    /**
+     * Creates string from the specified part of the working buffer, with invalid XML characters
+     * converted to spaces.
+     * @param start
+     * @param end
      */
-    private void updateCoordinates(char ch) {
-        if(ch == '\n'){
-            _row++;
-            _col = 1;
-        }else{
-            _col++;
+    private String text(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char ch = _working[i];
+            if (sanitize(ch) != ch) {
+                char[] chars = new char[end - start];
+                for (int j = 0; j < chars.length; j++) {
+                    chars[j] = sanitize(_working[start + j]);
+                }
+                return new String(chars);
+            }
         }
+        return new String(_working, start, end - start);
     }
 
     /**
-     * Saves character at current runtime position to the temporary buffer.
+     * Saves character at current runtime position.
      */
     private void saveCurrent() {
         if (!isAllRead()) {
-            save( _working[_pos] );
+            save(_pos);
         }
     }
 
     /**
-     * Saves specified number of characters at current runtime position to the temporary buffer.
+     * Saves specified number of characters at current runtime position.
      * @throws IOException
      */
     private void saveCurrent(int size) throws IOException {
     	readIfNeeded(size);
         int pos = _pos;
         while ( !isAllRead() && (size > 0) ) {
-            save( _working[pos] );
+            save(pos);
             pos++;
             size--;
         }
@@ -323,92 +787,300 @@ public class HtmlTokenizer {
     }
 
     private boolean addSavedAsContent() {
-        if (_saved.length() > 0) {
-            addToken( new ContentNode(_saved.toString()) );
-            _saved.delete(0, _saved.length());
+        if (savedLength() > 0) {
+            String text = limitText( savedText() );
+            if (text.length() > 0) {
+                addToken( new ContentNode(text) );
+            }
+            clearSaved();
             return true;
         }
 
         return false;
     }
 
+    /**
+     * Checks total length of the texts against the limit.
+     * @param text
+     * @return text itself, or its beginning if the limit is reached and content is truncated
+     */
+    private String limitText(String text) {
+        int maxTextLength = props.getMaxTextLength();
+        if (maxTextLength > 0 && _textLength + text.length() > maxTextLength) {
+            limitReached("maxTextLength", maxTextLength);
+            text = text.substring(0, maxTextLength - _textLength);
+            stop();
+        }
+        _textLength += text.length();
+        return text;
+    }
+
+    /**
+     * Called when one of the resource limits is reached, throws exception if required by the limit policy.
+     * @param limit
+     * @param value
+     */
+    private void limitReached(String limit, int value) {
+        if (props.getLimitPolicy() == LimitPolicy.exception) {
+            throw new ResourceLimitException(limit, value);
+        }
+    }
+
+    /**
+     * Stops tokenizing, the rest of the content is ignored.
+     */
+    private void stop() {
+        _len = _pos;
+    }
+
     /**
      * Starts parsing HTML.
      * @throws IOException
      */
     void start() throws IOException {
-    	// initialize runtime values
+        init();
+
+        while ( !isAllRead() ) {
+            step();
+        }
+
+        close();
+    }
+
+    /**
+     * Initializes runtime values and reads the first portion of the content.
+     * @throws IOException
+     */
+    void init() throws IOException {
+        if (_tokenList == null) {
+            _tokenList = new TokenList();
+            _namespacePrefixes = new HashSet<String>();
+        }
         _currentTagToken = null;
         _tokenList.clear();
         _asExpected = true;
-        _isScriptContext = false;
+        _rawTextEnd = null;
+        _isScriptEmpty = true;
+        _lastToken = null;
+        _prunedTag = null;
+        _tokenCount = 0;
+        _textLength = 0;
         _isLateForDoctype = false;
         _namespacePrefixes.clear();
 
-        this._pos = WORKING_BUFFER_SIZE;
-        readIfNeeded(0);
+        if (_contextTags != null) {
+            // fragment starts inside of the context tags, where doctype is not expected
+            _isLateForDoctype = true;
+            cleaner.openContext(_contextTags, _tokenList, cleanTimeValues);
+            if ( !_contextTags.isEmpty() ) {
+                _rawTextEnd = getRawTextEnd( _contextTags.get(_contextTags.size() - 1).getName() );
+            }
+        }
 
-        boolean isScriptEmpty = true;
+        if (nameTable == null) {
+            nameTable = new NameTable();
+        }
 
+        List<InputFilter> inputFilters = props.getInputFilters();
+        if ( inputFilters.isEmpty() ) {
+            _filters = NO_FILTERS;
+            _filterPrevious = NO_FILTERED_CHARS;
+        } else {
+            _filters = inputFilters.toArray(new InputFilter[inputFilters.size()]);
+            _filterPrevious = new char[_filters.length];
+        }
+
+        if ( !props.isTrackPositions() ) {
+            _lineStarts = null;
+        } else if (_content instanceof String && _filters.length == 0) {
+            // string stays as it is, so it is scanned for the lines only if a position is asked for
+            _lineStarts = new LineStarts((String) _content);
+        } else {
+            _lineStarts = new LineStarts();
+        }
+        _isRecordingLines = _lineStarts != null && _lineStarts.isRecorded();
+
+        if (_working == null) {
+            _working = newWorkingBuffer( calculateBufferSize(props.getBufferSize(), _sizeHint) );
+            _isWorkingOwned = true;
+            int bufferSize = _working.length;
+            this._pos = bufferSize;
+            this._limit = bufferSize;
+            this._bufferOffset = -bufferSize;
+            if (_chunks == null) {
+                readIfNeeded(0);
+            }
+        } else if (_isRecordingLines) {
+            _lineStarts.add(_working, _pos, _len, _bufferOffset);
+        }
+    }
+
+    /**
+     * Creates the working buffer, or takes the one left by the previous tokenizer using the same
+     * clean time values if it is large enough. Explicitly configured size is always kept.
+     * @param size calculated buffer size
+     */
+    private char[] newWorkingBuffer(int size) {
+        char[] buffer = cleanTimeValues != null ? cleanTimeValues.workingBuffer : null;
+        if ( buffer != null && (buffer.length == size || (props.getBufferSize() <= 0 && buffer.length > size)) ) {
+            cleanTimeValues.workingBuffer = null;
+            return buffer;
+        }
+        return new char[size];
+    }
+
+    /**
+     * Leaves the working buffer to the next tokenizer using the same clean time values, once all
+     * the content is tokenized. Content array which is scanned in place is never left.
+     */
+    void releaseWorkingBuffer() {
+        if (_isWorkingOwned && cleanTimeValues != null) {
+            cleanTimeValues.workingBuffer = _working;
+            _isWorkingOwned = false;
+        }
+    }
+
+    /**
+     * Adds next portion of the content and tokenizes as much of the content fed so far as
+     * possible. Characters are copied, so the buffer may be reused by the caller.
+     * @param chunk content, consumed completely
+     * @throws IOException
+     */
+    void feed(CharBuffer chunk) throws IOException {
+        if (_working == null) {
+            init();
+        }
+        boolean hasMarkup = false;
+        for (int i = chunk.position(); i < chunk.limit() && !hasMarkup; i++) {
+            char ch = chunk.get(i);
+            hasMarkup = ch == '<' || ch == '>';
+        }
+        CharBuffer copy = CharBuffer.allocate(chunk.remaining());
+        copy.put(chunk);
+        copy.flip();
+        if (copy.hasRemaining()) {
+            _chunks.addLast(copy);
+        }
+        // every token but the last one ends before or at the markup character
+        if (hasMarkup) {
+            tokenizeAvailable();
+        }
+    }
+
+    /**
+     * Marks the end of the content fed incrementally and tokenizes the rest of it.
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        if (_working == null) {
+            init();
+        }
+        _isInputFinished = true;
+        tokenizeAvailable();
+        close();
+    }
+
+    /**
+     * Performs steps until the content fed so far is exhausted. Step which needs more content
+     * is rolled back, and repeated when the content arrives. Content scanned in bulk is not
+     * scanned again by the repeated step, see {@link #resumeScan(boolean)}.
+     * @throws IOException
+     */
+    private void tokenizeAvailable() throws IOException {
         while ( !isAllRead() ) {
-            // resets all the runtime values
-            _saved.delete(0, _saved.length());
-            _currentTagToken = null;
-            _asExpected = true;
+            _checkpoint.save();
+            try {
+                step();
+            } catch (NeedMoreInput e) {
+                _checkpoint.restore();
+                _stepTokens.clear();
+                return;
+            }
+            _checkpoint.pos = -1;
+            _checkpoint.scanFrom = -1;
+            for (BaseToken token : _stepTokens) {
+                handleToken(token);
+            }
+            _stepTokens.clear();
+        }
+    }
 
-            // this is enough for making decision
-            readIfNeeded(10);
+    /**
+     * Parses next piece of the content, producing at most few tokens.
+     * @return false if end of the content is reached.
+     * @throws IOException
+     */
+    boolean step() throws IOException {
+        if ( isAllRead() ) {
+            return false;
+        }
 
-            if (_isScriptContext) {
-                if ( startsWith("</script") && (isWhitespace(_pos + 8) || isChar(_pos + 8, '>')) ) {
-                    tagEnd();
-                } else if ( isScriptEmpty && startsWith("<!--") ) {
-                    comment();
-                } else {
-                    boolean isTokenAdded = content();
-                    if (isScriptEmpty && isTokenAdded) {
-                        final BaseToken lastToken = (BaseToken) _tokenList.get(_tokenList.size() - 1);
-                        if (lastToken != null) {
-                            final String lastTokenAsString = lastToken.toString();
-                            if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
-                                isScriptEmpty = false;
-                            }
-                        }
+        // resets all the runtime values
+        clearSaved();
+        _currentTagToken = null;
+        _asExpected = true;
+        _tokenStart = _bufferOffset + _pos;
+
+        // this is enough for making decision
+        readIfNeeded(10);
+
+        if (_rawTextEnd != null) {
+            if ( isRawTextEnd() ) {
+                tagEnd();
+                _rawTextEnd = null;
+            } else if ( _isScriptEmpty && startsWith("<!--") ) {
+                comment();
+            } else {
+                boolean isTokenAdded = rawText();
+                if (_isScriptEmpty && isTokenAdded) {
+                    final String lastTokenAsString = _lastToken.toString();
+                    if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
+                        _isScriptEmpty = false;
                     }
                 }
-                if (!_isScriptContext) {
-                    isScriptEmpty = true;
+            }
+            if (_rawTextEnd == null) {
+                _isScriptEmpty = true;
+            }
+        } else {
+            if ( startsWith("<!doctype") ) {
+                if ( !_isLateForDoctype ) {
+                    doctype();
+                    _isLateForDoctype = true;
+                } else {
+                    ignoreUntil('<');
+                }
+            } else if ( startsWith("</") && isIdentifierStartChar(_pos + 2) ) {
+                _isLateForDoctype = true;
+                tagEnd();
+            } else if ( startsWith("<!--") ) {
+                comment();
+            } else if ( startsWith("<") && isIdentifierStartChar(_pos + 1) ) {
+                _isLateForDoctype = true;
+                tagStart();
+            } else if ( props.isIgnoreQuestAndExclam() && (startsWith("<!") || startsWith("<?")) ) {
+                ignoreUntil('>');
+                if (isChar('>')) {
+                    go();
                 }
+            } else if ( startsWith("<?xml")){
+                ignoreUntil('<');
             } else {
-            	if ( startsWith("<!doctype") ) {
-            		if ( !_isLateForDoctype ) {
-            			doctype();
-            			_isLateForDoctype = true;
-            		} else {
-            			ignoreUntil('<');
-            		}
-            	} else if ( startsWith("</") && isIdentifierStartChar(_pos + 2) ) {
-            		_isLateForDoctype = true;
-            		tagEnd();
-            	} else if ( startsWith("<!--") ) {
-            		comment();
-            	} else if ( startsWith("<") && isIdentifierStartChar(_pos + 1) ) {
-            		_isLateForDoctype = true;
-            		tagStart();
-            	} else if ( props.isIgnoreQuestAndExclam() && (startsWith("<!") || startsWith("<?")) ) {
-            		ignoreUntil('>');
-            		if (isChar('>')) {
-            			go();
-            		}
-            	} else if ( startsWith("<?xml")){
-            		ignoreUntil('<');
-            	} else {
-            		content();
-            	}
-            }
-        }
-
-        _reader.close();
+                content();
+            }
+        }
+
+        return !isAllRead();
+    }
+
+    /**
+     * Closes underlying reader.
+     * @throws IOException
+     */
+    void close() throws IOException {
+        if (_reader != null) {
+            _reader.close();
+        }
     }
 
     /**
@@ -420,6 +1092,17 @@ public class HtmlTokenizer {
         return "html".equalsIgnoreCase(tagName) || "head".equalsIgnoreCase(tagName) || "body".equalsIgnoreCase(tagName);
     }
 
+    /**
+     * Hands the tag info looked up while tokenizing over to the token, so the cleaner doesn't
+     * have to look it up again. The token lower-cases its name, so this is only done if the
+     * lookup was made with the same name.
+     */
+    private void seedTagInfo(TagToken token, String tagName, TagInfo tagInfo) {
+        if (tagName != null && tagName.equals(token.getName())) {
+            token.setTagInfo(tagInfoProvider, tagInfo);
+        }
+    }
+
     /**
      * Parses start of the tag.
      * It expects that current position is at the "<" after which
@@ -437,9 +1120,9 @@ public class HtmlTokenizer {
         String originalTagName = identifier();
         String tagName = transformations.getTagName(originalTagName);
 
+        TagInfo tagInfo = null;
         if (tagName != null) {
-            ITagInfoProvider tagInfoProvider = cleaner.getTagInfoProvider();
-            TagInfo tagInfo = tagInfoProvider.getTagInfo(tagName);
+            tagInfo = tagInfoProvider.getTagInfo(tagName);
             if ( (tagInfo == null && !props.isOmitUnknownTags() && props.isTreatUnknownTagsAsContent() && !isReservedTag(tagName)) ||
                  (tagInfo != null && tagInfo.isDeprecated() && !props.isOmitDeprecatedTags() && props.isTreatDeprecatedTagsAsContent()) ) {
                 content();
@@ -448,6 +1131,7 @@ public class HtmlTokenizer {
         }
 
         TagNode tagNode = new TagNode(tagName);
+        seedTagInfo(tagNode, tagName, tagInfo);
         _currentTagToken = tagNode;
 
         if (_asExpected) {
@@ -463,8 +1147,10 @@ public class HtmlTokenizer {
 
             if ( isChar('>') ) {
             	go();
-                if ( "script".equalsIgnoreCase(tagName) ) {
-                    _isScriptContext = true;
+                _rawTextEnd = getRawTextEnd(tagName);
+                if ( tagName != null && cleaner != null && (_rawTextEnd != null || (tagInfo != null && tagInfo.getContentType() == ContentType.text))
+                        && cleaner.isPrunedByName(tagNode, cleanTimeValues) ) {
+                    _prunedTag = tagNode;
                 }
             } else if ( startsWith("/>") ) {
             	go(2);
@@ -486,7 +1172,6 @@ public class HtmlTokenizer {
     private void tagEnd() throws IOException {
         saveCurrent(2);
         go(2);
-        _col += 2;
 
         if ( isAllRead() ) {
             return;
@@ -500,9 +1185,9 @@ public class HtmlTokenizer {
             }
         }
 
+        TagInfo tagInfo = null;
         if (tagName != null) {
-            ITagInfoProvider tagInfoProvider = cleaner.getTagInfoProvider();
-            TagInfo tagInfo = tagInfoProvider.getTagInfo(tagName);
+            tagInfo = tagInfoProvider.getTagInfo(tagName);
             if ( (tagInfo == null && !props.isOmitUnknownTags() && props.isTreatUnknownTagsAsContent() && !isReservedTag(tagName)) ||
                  (tagInfo != null && tagInfo.isDeprecated() && !props.isOmitDeprecatedTags() && props.isTreatDeprecatedTagsAsContent()) ) {
                 content();
@@ -511,6 +1196,7 @@ public class HtmlTokenizer {
         }
 
         _currentTagToken = new EndTagToken(tagName);
+        seedTagInfo(_currentTagToken, tagName, tagInfo);
 
         if (_asExpected) {
             skipWhitespaces();
@@ -524,10 +1210,6 @@ public class HtmlTokenizer {
             	go();
             }
 
-            if ( "script".equalsIgnoreCase(tagName) ) {
-                _isScriptContext = false;
-            }
-
             _currentTagToken = null;
         } else {
             addSavedAsContent();
@@ -546,24 +1228,27 @@ public class HtmlTokenizer {
             return null;
         }
 
-        StringBuffer identifierValue = new StringBuffer();
-
+        // identifier is the tail of the saved characters
+        int length = 0;
         while ( !isAllRead() && isIdentifierChar() ) {
             saveCurrent();
-            identifierValue.append( _working[_pos] );
+            length++;
             go();
         }
 
+        int end = _savedEnd;
+        int start = end - length;
+
         // strip invalid characters from the end
-        while ( identifierValue.length() > 0 && Utils.isIdentifierHelperChar(identifierValue.charAt(identifierValue.length() - 1)) ) {
-            identifierValue.deleteCharAt( identifierValue.length() - 1 );
+        while ( end > start && Utils.isIdentifierHelperChar(_working[end - 1]) ) {
+            end--;
         }
 
-        if ( identifierValue.length() == 0 ) {
+        if ( end == start ) {
             return null;
         }
 
-        String id = identifierValue.toString();
+        String id = nameTable.get(_working, start, end - start);
 
         int columnIndex = id.indexOf(':');
         if (columnIndex >= 0) {
@@ -591,6 +1276,7 @@ public class HtmlTokenizer {
      * @throws IOException
      */
     private void tagAttributes() throws IOException {
+        int attributeCount = 0;
         while( !isAllRead() && _asExpected && !isChar('>') && !startsWith("/>") ) {
             skipWhitespaces();
             String attName = identifier();
@@ -624,7 +1310,12 @@ public class HtmlTokenizer {
             }
 
             if (_asExpected) {
-                _currentTagToken.addAttribute(attName, attValue);
+                if (props.getMaxAttributes() > 0 && attributeCount >= props.getMaxAttributes()) {
+                    limitReached("maxAttributes", props.getMaxAttributes());
+                } else {
+                    _currentTagToken.addAttribute(attName, attValue);
+                    attributeCount++;
+                }
             }
         }
     }
@@ -647,8 +1338,6 @@ public class HtmlTokenizer {
         boolean isQuoteMode = false;
         boolean isAposMode = false;
 
-        StringBuffer result = new StringBuffer();
-
         if ( isChar('\'') ) {
             isAposMode = true;
             saveCurrent();
@@ -663,16 +1352,25 @@ public class HtmlTokenizer {
 
         boolean allowHtml = props.isAllowHtmlInsideAttributes();
 
+        // value is the tail of the saved characters
+        int length = 0;
         while ( !isAllRead() &&
                 ( (isAposMode && !isChar('\'') && (allowHtml || !isChar('>') && !isChar('<')) && (isMultiWord || !isWhitespace())) ||
                   (isQuoteMode && !isChar('\"') && (allowHtml || !isChar('>') && !isChar('<')) && (isMultiWord || !isWhitespace())) ||
                   (!isAposMode && !isQuoteMode && !isWhitespace() && !isChar('>') && !isChar('<'))
                 )
               ) {
-            result.append( _working[_pos] );
             saveCurrent();
+            length++;
             go();
         }
+        int start = _savedEnd - length;
+        int maxAttributeLength = props.getMaxAttributeLength();
+        if (maxAttributeLength > 0 && length > maxAttributeLength) {
+            limitReached("maxAttributeLength", maxAttributeLength);
+            length = maxAttributeLength;
+        }
+        String result = length > 0 ? text(start, start + length) : "";
 
         if ( isChar('\'') && isAposMode ) {
             saveCurrent();
@@ -683,21 +1381,153 @@ public class HtmlTokenizer {
         }
 
 
-        return result.toString();
+        return result;
     }
 
     private boolean content() throws IOException {
-        while ( !isAllRead() ) {
+        if ( savedLength() == 0 && isInPrunedTag() ) {
+            skipContent();
+            return false;
+        }
+        long scanFrom = _bufferOffset + _pos;
+        if ( !resumeScan(true) ) {
+            // the first character is content even if it is '<'
             saveCurrent();
             go();
-            if (isTagStartOrEnd()) {
+        }
+        while ( !isAllRead() ) {
+            int end = _len >= 0 ? _len : _limit;
+            int pos = _pos;
+            while (pos < end && _working[pos] != '<') {
+                pos++;
+            }
+            if (pos > _pos) {
+                save(_pos, pos);
+                _pos = pos;
+                scanned(scanFrom, false);
+                readIfNeeded(0);
+            } else if ( isTagStartOrEnd() ) {
                 break;
+            } else {
+                saveCurrent();
+                go();
             }
         }
 
         return addSavedAsContent();
     }
 
+    /**
+     * Skips the text content of a pruned tag up to the next tag, scanning in bulk for the
+     * next '<' without saving anything.
+     * @throws IOException
+     */
+    private void skipContent() throws IOException {
+        long scanFrom = _bufferOffset + _pos;
+        boolean isSkipped = resumeScan(false);
+        while ( !isAllRead() ) {
+            int end = _len >= 0 ? _len : _limit;
+            int pos = _pos;
+            while (pos < end && _working[pos] != '<') {
+                pos++;
+            }
+            if (pos > _pos) {
+                _pos = pos;
+                isSkipped = true;
+                scanned(scanFrom, false);
+                readIfNeeded(0);
+            } else if ( isSkipped && isTagStartOrEnd() ) {
+                break;
+            } else {
+                go();
+                isSkipped = true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the content at the current position is placed inside a tag pruned by
+     * its name, so it doesn't have to be kept.
+     */
+    private boolean isInPrunedTag() {
+        return _prunedTag != null && cleaner.isContentPruned(_tokenList, _prunedTag, cleanTimeValues);
+    }
+
+    /**
+     * @param tagName
+     * @return beginning of the end tag which closes content of the specified tag if the content
+     * is raw text, null otherwise
+     */
+    private static String getRawTextEnd(String tagName) {
+        if ( "script".equalsIgnoreCase(tagName) ) {
+            return "</script";
+        } else if ( "style".equalsIgnoreCase(tagName) ) {
+            return "</style";
+        }
+        return null;
+    }
+
+    /**
+     * Parses script or style content up to its end tag. Content is scanned in bulk, since tags
+     * are not recognized inside it. Content of pruned tag is skipped without being saved.
+     * @return true if content token is added
+     * @throws IOException
+     */
+    private boolean rawText() throws IOException {
+        boolean isPruned = isInPrunedTag();
+        long scanFrom = _bufferOffset + _pos;
+        boolean isScanned = resumeScan(!isPruned);
+        boolean isBlank = isScanned ? _checkpoint.isBlank : true;
+        while ( !isAllRead() ) {
+            int end = _len >= 0 ? _len : _limit;
+            int pos = _pos;
+            while (pos < end && _working[pos] != '<') {
+                if (_working[pos] > ' ') {
+                    isBlank = false;
+                }
+                pos++;
+            }
+            if (pos > _pos) {
+                if (!isPruned) {
+                    save(_pos, pos);
+                }
+                _pos = pos;
+                scanned(scanFrom, isBlank);
+                readIfNeeded(0);
+            } else {
+                // content is stopped by the end tag, leading whitespace is kept as separate token
+                readIfNeeded(_rawTextEnd.length() + 1);
+                if ( isScanned && (isRawTextEnd() || (isBlank && isTagStartOrEnd())) ) {
+                    break;
+                }
+                if (!isPruned) {
+                    saveCurrent();
+                }
+                go();
+                isBlank = false;
+            }
+            isScanned = true;
+        }
+
+        if (isPruned) {
+            // comments are recognized only at the beginning of script, as when content is kept
+            if (!isBlank) {
+                _isScriptEmpty = false;
+            }
+            return false;
+        }
+        return addSavedAsContent();
+    }
+
+    /**
+     * @return true if current position is at the end tag of script or style content.
+     * @throws IOException
+     */
+    private boolean isRawTextEnd() throws IOException {
+        int length = _rawTextEnd.length();
+        return startsWith(_rawTextEnd) && (isWhitespace(_pos + length) || isChar(_pos + length, '>'));
+    }
+
     /**
      * Not all '<' (lt) symbols mean tag start or end. For example '<' can be part of 
      * mathematical expression. To avoid false breaks of content tags use this method to
@@ -714,41 +1544,117 @@ public class HtmlTokenizer {
     private void ignoreUntil(char ch) throws IOException {
         while ( !isAllRead() ) {
         	go();
-        	updateCoordinates(_working[_pos]);
             if ( isChar(ch) ) {
                 break;
             }
         }
     }
 
+    /**
+     * Parses comment. Comment body is scanned in bulk up to the next hyphen. If comments
+     * are omitted, body is skipped without being saved.
+     * @throws IOException
+     */
     private void comment() throws IOException {
     	go(4);
-        while ( !isAllRead() && !startsWith("-->") ) {
-            saveCurrent();
-            go();
+    	boolean isOmitted = props.isOmitComments() || isInPrunedTag();
+    	long scanFrom = _bufferOffset + _pos;
+    	resumeScan(!isOmitted);
+        while ( !isAllRead() ) {
+            int end = _len >= 0 ? _len : _limit;
+            int pos = _pos;
+            while (pos < end && _working[pos] != '-') {
+                pos++;
+            }
+            if (pos > _pos) {
+                if (!isOmitted) {
+                    save(_pos, pos);
+                }
+                _pos = pos;
+                scanned(scanFrom, false);
+                readIfNeeded(0);
+            } else if ( startsWith("-->") ) {
+                go(3);
+                break;
+            } else {
+                if (!isOmitted) {
+                    saveCurrent();
+                }
+                go();
+            }
         }
 
-        if (startsWith("-->")) {
-        	go(3);
+        if (savedLength() > 0) {
+            String comment = escapeHyphens( limitText(savedText()) );
+            if ( comment.length() > 0 ) {
+                addToken( new CommentNode(comment) );
+            }
+            clearSaved();
         }
+    }
 
-        if (_saved.length() > 0) {
-            if ( !props.isOmitComments() ) {
-                String hyphenRepl = props.getHyphenReplacementInComment();
-                String comment = _saved.toString().replaceAll("--", hyphenRepl + hyphenRepl);
+    /**
+     * Continues the bulk scan which starts at the current position from where the same scan got
+     * before the step was rolled back, so long tokens fed in many portions are scanned only once.
+     * Characters skipped this way are saved, the same as they were by the interrupted scan.
+     * @param isSaving scanned characters are saved
+     * @return true if the scan is resumed
+     */
+    private boolean resumeScan(boolean isSaving) {
+        if (_checkpoint == null || _checkpoint.scanFrom != _bufferOffset + _pos) {
+            return false;
+        }
+        int pos = (int) (_checkpoint.scanTo - _bufferOffset);
+        if (isSaving) {
+            save(_pos, pos);
+        }
+        _pos = pos;
+        return true;
+    }
 
-        		if ( comment.length() > 0 && comment.charAt(0) == '-' ) {
-        			comment = hyphenRepl + comment.substring(1);
-        		}
-        		int len = comment.length();
-        		if ( len > 0 && comment.charAt(len - 1) == '-' ) {
-        			comment = comment.substring(0, len - 1) + hyphenRepl;
-        		}
+    /**
+     * Remembers how far the bulk scan has got, called only where the scan may be resumed.
+     * @param scanFrom offset where the scan started
+     * @param isBlank scanned content is blank, as far as the scan cares
+     */
+    private void scanned(long scanFrom, boolean isBlank) {
+        if (_checkpoint != null) {
+            _checkpoint.scanFrom = scanFrom;
+            _checkpoint.scanTo = _bufferOffset + _pos;
+            _checkpoint.isBlank = isBlank;
+        }
+    }
 
-        		addToken( new CommentNode(comment) );
-        	}
-            _saved.delete(0, _saved.length());
+    /**
+     * Replaces every double hyphen, as well as hyphen at the beginning and at the end of the
+     * comment, with two or one hyphen replacements, since they are not allowed in XML comments.
+     * @param comment
+     * @return comment with hyphens replaced
+     */
+    private String escapeHyphens(String comment) {
+        if (comment.indexOf('-') < 0) {
+            return comment;
+        }
+        String hyphenRepl = props.getHyphenReplacementInComment();
+        int len = comment.length();
+        StringBuilder result = new StringBuilder(len + 8);
+        for (int i = 0; i < len; i++) {
+            char ch = comment.charAt(i);
+            if (ch == '-' && i + 1 < len && comment.charAt(i + 1) == '-') {
+                result.append(hyphenRepl).append(hyphenRepl);
+                i++;
+            } else {
+                result.append(ch);
+            }
         }
+        if ( result.length() > 0 && result.charAt(0) == '-' ) {
+            result.replace(0, 1, hyphenRepl);
+        }
+        int resultLen = result.length();
+        if ( resultLen > 0 && result.charAt(resultLen - 1) == '-' ) {
+            result.replace(resultLen - 1, resultLen, hyphenRepl);
+        }
+        return result.toString();
     }
 
     private void doctype() throws IOException {
@@ -778,4 +1684,66 @@ public class HtmlTokenizer {
         return _docType;
     }
 
+    /**
+     * State of the tokenizer at the beginning of the step, restored when the step can't be
+     * completed with the content fed so far. Progress of the step's bulk scan is kept, so the
+     * repeated step doesn't scan the same content again.
+     */
+    private final class Checkpoint {
+        private int pos = -1;
+        private long scanFrom = -1;
+        private long scanTo;
+        private boolean isBlank;
+        private boolean isLateForDoctype;
+        private DoctypeToken docType;
+        private String rawTextEnd;
+        private boolean isScriptEmpty;
+        private BaseToken lastToken;
+        private TagNode prunedTag;
+        private int tokenCount;
+        private int textLength;
+
+        private void save() {
+            pos = _pos;
+            isLateForDoctype = _isLateForDoctype;
+            docType = _docType;
+            rawTextEnd = _rawTextEnd;
+            isScriptEmpty = _isScriptEmpty;
+            lastToken = _lastToken;
+            prunedTag = _prunedTag;
+            tokenCount = _tokenCount;
+            textLength = _textLength;
+        }
+
+        private void restore() {
+            _pos = pos;
+            _isLateForDoctype = isLateForDoctype;
+            _docType = docType;
+            _rawTextEnd = rawTextEnd;
+            _isScriptEmpty = isScriptEmpty;
+            _lastToken = lastToken;
+            _prunedTag = prunedTag;
+            _tokenCount = tokenCount;
+            _textLength = textLength;
+            clearSaved();
+        }
+    }
+
+    /**
+     * Thrown when the content fed so far ends before the current step is complete.
+     */
+    private static final class NeedMoreInput extends IOException {
+        private static final long serialVersionUID = 1L;
+        private static final NeedMoreInput INSTANCE = new NeedMoreInput();
+
+        private NeedMoreInput() {
+            super("More content is needed");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+/**
+ * <p>Beginnings of the lines of the cleaned content, used to find row and column of a token from its
+ * offset only when they are asked for. Content which can't change, such as String, is scanned for the
+ * lines on the first such request. Other content may be gone by then, so its lines are recorded as
+ * it is read.</p>
+ *
+ * <p>Tokens may be asked for their position at any time and from any thread, so access is
+ * synchronized.</p>
+ */
+class LineStarts {
+
+    /**
+     * offsets of the line beginnings, in ascending order, the first line starts at 0
+     */
+    private long[] starts = new long[64];
+    private int count = 1;
+    /**
+     * content to be scanned for the lines on the first lookup, null if lines are recorded
+     */
+    private String content;
+
+    /**
+     * Creates lines which are recorded by {@link #add(char[], int, int, long)}.
+     */
+    LineStarts() {
+    }
+
+    /**
+     * Creates lines of the specified content, found when they are needed.
+     * @param content
+     */
+    LineStarts(String content) {
+        this.content = content;
+    }
+
+    /**
+     * @return true if lines are recorded as the content is read
+     */
+    boolean isRecorded() {
+        return content == null;
+    }
+
+    /**
+     * Records beginnings of the lines within the specified range of characters.
+     * @param chars
+     * @param start
+     * @param end
+     * @param offset offset of the first character of the array from the beginning of the content
+     */
+    synchronized void add(char[] chars, int start, int end, long offset) {
+        for (int i = start; i < end; i++) {
+            if (chars[i] == '\n') {
+                addStart(offset + i + 1);
+            }
+        }
+    }
+
+    private void addStart(long start) {
+        if (count == starts.length) {
+            long[] newStarts = new long[starts.length * 2];
+            System.arraycopy(starts, 0, newStarts, 0, count);
+            starts = newStarts;
+        }
+        starts[count++] = start;
+    }
+
+    /**
+     * @param offset offset from the beginning of the content
+     * @return row of the specified offset, the first row is 1
+     */
+    synchronized int getRow(long offset) {
+        return lineOf(offset) + 1;
+    }
+
+    /**
+     * @param offset offset from the beginning of the content
+     * @return column of the specified offset, the first column is 1
+     */
+    synchronized int getCol(long offset) {
+        return (int) (offset - starts[lineOf(offset)]) + 1;
+    }
+
+    private int lineOf(long offset) {
+        if (content != null) {
+            for (int i = content.indexOf('\n'); i >= 0; i = content.indexOf('\n', i + 1)) {
+                addStart(i + 1);
+            }
+            content = null;
+        }
+        // last line which starts at or before the offset
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,160 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+/**
+ * <p>Table of tag and attribute names, used by the tokenizer to share single String instance among
+ * all occurrences of the same name. Names are looked up directly by the range of characters in the
+ * working buffer, so known names don't need to be created at all, and since shared instances have
+ * their hash codes already computed, later map lookups by these names are cheaper.</p>
+ *
+ * <p>Table is initially filled with the names of tags known to {@link DefaultTagProvider} and common
+ * attribute names. New names are added until the table is full, after that new strings are simply
+ * created.</p>
+ *
+ * <p>Table is shared by all cleanings done by the same cleaner, possibly in several threads, without
+ * synchronization. Every found name is compared char by char, so a name written by another thread
+ * never makes the table return a wrong one. Threads may overwrite each other's names or fill the table
+ * past its maximum size, which only means that some names are not shared, since the number of places
+ * probed for a name is limited.</p>
+ */
+class NameTable {
+
+    private static final int CAPACITY = 4096;
+    private static final int MAX_SIZE = CAPACITY / 2;
+    /**
+     * Most places probed for a name, names which are not found within them are not shared.
+     */
+    private static final int MAX_PROBES = 32;
+
+    private static final String[] COMMON_ATTRIBUTE_NAMES = {
+        "id", "class", "style", "title", "lang", "dir", "href", "src", "alt", "name", "type", "value",
+        "width", "height", "align", "valign", "border", "rel", "target", "content", "charset", "http-equiv",
+        "action", "method", "for", "label", "checked", "selected", "disabled", "readonly", "size", "maxlength",
+        "colspan", "rowspan", "cellpadding", "cellspacing", "bgcolor", "color", "face", "language", "media",
+        "onclick", "onload", "onmouseover", "onmouseout", "onchange", "onsubmit", "tabindex", "xmlns", "xml:lang",
+        "html", "public"
+    };
+
+    private static final String[] INITIAL_NAMES;
+    private static final int INITIAL_SIZE;
+
+    static {
+        NameTable initial = new NameTable(new String[CAPACITY], 0);
+        for (String tagName : DefaultTagProvider.INSTANCE.getTagNames()) {
+            initial.add(tagName);
+        }
+        for (String attName : COMMON_ATTRIBUTE_NAMES) {
+            initial.add(attName);
+        }
+        INITIAL_NAMES = initial.names;
+        INITIAL_SIZE = initial.size;
+    }
+
+    private final String[] names;
+    private int size;
+
+    NameTable() {
+        this(INITIAL_NAMES.clone(), INITIAL_SIZE);
+    }
+
+    private NameTable(String[] names, int size) {
+        this.names = names;
+        this.size = size;
+    }
+
+    /**
+     * @param chars
+     * @param start
+     * @param length
+     * @return String with the specified characters, the same instance for the same characters
+     */
+    String get(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        return find(chars, start, length, hash, null);
+    }
+
+    private void add(String name) {
+        find(name.toCharArray(), 0, name.length(), name.hashCode(), name);
+    }
+
+    /**
+     * Looks up the name with the specified characters, and adds it to the table if it is not there.
+     * @param newName name added if it is not found, or null to create it from the characters
+     * @return name from the table, or the new one
+     */
+    private String find(char[] chars, int start, int length, int hash, String newName) {
+        int index = hash & (CAPACITY - 1);
+        for (int probes = 0; probes < MAX_PROBES; probes++) {
+            // the place is read once, since other threads may write it
+            String name = names[index];
+            if (name == null) {
+                name = newName != null ? newName : new String(chars, start, length);
+                put(index, name);
+                return name;
+            }
+            if ( name.hashCode() == hash && equals(name, chars, start, length) ) {
+                return name;
+            }
+            index = (index + 1) & (CAPACITY - 1);
+        }
+        return newName != null ? newName : new String(chars, start, length);
+    }
+
+    private void put(int index, String name) {
+        if (size < MAX_SIZE) {
+            // hash code is cached by the string itself
+            name.hashCode();
+            names[index] = name;
+            size++;
+        }
+    }
+
+    private static boolean equals(String name, char[] chars, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+/**
+ * <p>Thrown when one of the resource limits from {@link CleanerProperties} is reached
+ * and the limit policy is {@link LimitPolicy#exception}.</p>
+ */
+public class ResourceLimitException extends HtmlCleanerException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String limit;
+    private final int value;
+
+    /**
+     * @param limit name of the property defining the limit, for example "maxDepth".
+     * @param value value of the limit.
+     */
+    public ResourceLimitException(String limit, int value) {
+        super("Resource limit " + limit + " = " + value + " is exceeded");
+        this.limit = limit;
+        this.value = value;
+    }
+
+    /**
+     * @return name of the property defining the limit, for example "maxDepth".
+     */
+    public String getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return value of the limit.
+     */
+    public int getValue() {
+        return value;
+    }
+
+}
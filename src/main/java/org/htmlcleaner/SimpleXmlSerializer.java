@@ -61,7 +61,8 @@ public class SimpleXmlSerializer extends XmlSerializer {
             if (dontEscape) {
                 writer.write( content.substring(0, pos).replaceAll("]]>", "]]&gt;") );
             } else {
-                if (trimmed.startsWith(BEGIN_CDATA)) {
+                // raw text is a single token, starting with the safe CDATA beginning if it has one
+                if (trimmed.startsWith(BEGIN_CDATA) || trimmed.startsWith(SAFE_BEGIN_CDATA)) {
                     int actualStart = content.indexOf(BEGIN_CDATA) + BEGIN_CDATA.length();
                     writer.write(content.substring(0, actualStart));
                     writer.write( escapeXml(content.substring(actualStart, pos)));
@@ -0,0 +1,76 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+/**
+ * Commonly used input filters.
+ */
+public enum StandardInputFilter implements InputFilter {
+
+    /**
+     * Removes NUL characters.
+     */
+    STRIP_NUL {
+        public int filter(char[] chars, int start, int end, char previous) {
+            int to = start;
+            for (int i = start; i < end; i++) {
+                char ch = chars[i];
+                if (ch != 0) {
+                    chars[to++] = ch;
+                }
+            }
+            return to;
+        }
+    },
+
+    /**
+     * Converts CR LF pairs and single CR characters to LF.
+     */
+    NORMALIZE_LINE_BREAKS {
+        public int filter(char[] chars, int start, int end, char previous) {
+            int to = start;
+            for (int i = start; i < end; i++) {
+                char ch = chars[i];
+                if (ch == '\r') {
+                    chars[to++] = '\n';
+                } else if (ch != '\n' || previous != '\r') {
+                    chars[to++] = ch;
+                }
+                previous = ch;
+            }
+            return to;
+        }
+    };
+
+}
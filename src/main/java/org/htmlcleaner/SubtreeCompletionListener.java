@@ -0,0 +1,57 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+/**
+ * <p>Implementors can be set on {@link CleanerProperties} to receive every element as soon as
+ * the cleaner has closed it by its end tag. At that point the subtree is complete and can no longer be
+ * reopened, so it can be processed or serialized while the rest of the document is still being cleaned.</p>
+ *
+ * <p>If the listener consumes the subtree, the cleaner drops all its references to it, and neither the
+ * element nor the whitespace preceding it is part of the resulting document. This keeps memory bounded
+ * when cleaning huge documents made of many similar records, like rows of a table or items of a list.
+ * Consumed subtrees are passed as built by the tag balancing, without the processing done for the whole
+ * document at the end of cleaning, like pruning of tags or moving of head elements to the head.</p>
+ */
+public interface SubtreeCompletionListener {
+
+    /**
+     * Fired when an element is closed by its end tag.
+     *
+     * @param tagNode - the complete element, not attached to a parent yet.
+     * @return true if the subtree is consumed and must be dropped from the document, false to keep it.
+     */
+    boolean subtreeCompleted(TagNode tagNode);
+
+}
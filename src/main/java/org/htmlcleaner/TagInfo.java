@@ -104,13 +104,17 @@ import java.util.*;
 public class TagInfo {
 
     private String name;
+    /**
+     * id of the name, looked up again while the name has none, since rules may name it later
+     */
+    private int id = TagNameSet.UNKNOWN_ID;
     private ContentType contentType;
-    private Set<String> mustCloseTags = new HashSet<String>();
-    private Set<String> higherTags = new HashSet<String>();
-    private Set<String> childTags = new HashSet<String>();
-    private Set<String> permittedTags = new HashSet<String>();
-    private Set<String> copyTags = new HashSet<String>();
-    private Set<String> continueAfterTags = new HashSet<String>();
+    private TagNameSet mustCloseTags = new TagNameSet();
+    private TagNameSet higherTags = new TagNameSet();
+    private TagNameSet childTags = new TagNameSet();
+    private TagNameSet permittedTags = new TagNameSet();
+    private TagNameSet copyTags = new TagNameSet();
+    private TagNameSet continueAfterTags = new TagNameSet();
     private BelongsTo belongsTo = BelongsTo.BODY;
     private String requiredParent;
     private String fatalTag;
@@ -215,6 +219,7 @@ public class TagInfo {
 
 	public void setName(String name) {
         this.name = name;
+        this.id = TagNameSet.UNKNOWN_ID;
     }
 
     public ContentType getContentType() {
@@ -226,7 +231,7 @@ public class TagInfo {
     }
 
     public void setMustCloseTags(Set<String> mustCloseTags) {
-        this.mustCloseTags = mustCloseTags;
+        this.mustCloseTags = new TagNameSet(mustCloseTags);
     }
 
     public Set<String> getHigherTags() {
@@ -234,7 +239,7 @@ public class TagInfo {
     }
 
     public void setHigherTags(Set<String> higherTags) {
-        this.higherTags = higherTags;
+        this.higherTags = new TagNameSet(higherTags);
     }
 
     public Set<String> getChildTags() {
@@ -242,7 +247,7 @@ public class TagInfo {
     }
 
     public void setChildTags(Set<String> childTags) {
-        this.childTags = childTags;
+        this.childTags = new TagNameSet(childTags);
     }
 
     public Set<String> getPermittedTags() {
@@ -250,7 +255,7 @@ public class TagInfo {
     }
 
     public void setPermittedTags(Set<String> permittedTags) {
-        this.permittedTags = permittedTags;
+        this.permittedTags = new TagNameSet(permittedTags);
     }
 
     public Set<String> getCopyTags() {
@@ -258,7 +263,7 @@ public class TagInfo {
     }
 
     public void setCopyTags(Set<String> copyTags) {
-        this.copyTags = copyTags;
+        this.copyTags = new TagNameSet(copyTags);
     }
 
     public Set<String> getContinueAfterTags() {
@@ -266,7 +271,7 @@ public class TagInfo {
     }
 
     public void setContinueAfterTags(Set<String> continueAfterTags) {
-        this.continueAfterTags = continueAfterTags;
+        this.continueAfterTags = new TagNameSet(continueAfterTags);
     }
 
     public String getRequiredParent() {
@@ -328,11 +333,19 @@ public class TagInfo {
     }
 
     boolean isHigher(String tagName) {
-    	return higherTags.contains(tagName);
+    	return isHigher(TagNameSet.getId(tagName));
+    }
+
+    boolean isHigher(int tagId) {
+    	return higherTags.containsId(tagId);
     }
 
     boolean isCopy(String tagName) {
-    	return copyTags.contains(tagName);
+    	return isCopy(TagNameSet.getId(tagName));
+    }
+
+    boolean isCopy(int tagId) {
+    	return copyTags.containsId(tagId);
     }
 
     boolean hasCopyTags() {
@@ -340,7 +353,11 @@ public class TagInfo {
     }
 
     boolean isContinueAfter(String tagName) {
-    	return continueAfterTags.contains(tagName);
+    	return isContinueAfter(TagNameSet.getId(tagName));
+    }
+
+    boolean isContinueAfter(int tagId) {
+    	return continueAfterTags.containsId(tagId);
     }
 
     boolean hasPermittedTags() {
@@ -357,12 +374,22 @@ public class TagInfo {
 
     boolean isMustCloseTag(TagInfo tagInfo) {
         if (tagInfo != null) {
-            return mustCloseTags.contains( tagInfo.getName() ) || tagInfo.contentType == ContentType.text;
+            return mustCloseTags.containsId( tagInfo.getId() ) || tagInfo.contentType == ContentType.text;
         }
 
         return false;
     }
 
+    /**
+     * @return id of this tag's name, or {@link TagNameSet#UNKNOWN_ID} if no rule names it
+     */
+    private int getId() {
+        if (id < 0) {
+            id = TagNameSet.getId(name);
+        }
+        return id;
+    }
+
     /**
      *
      * @param token
@@ -381,11 +408,11 @@ public class TagInfo {
         case all:
             if ( !childTags.isEmpty() ) {
                 if ( token instanceof TagToken) {
-                    return childTags.contains( ((TagToken)token).getName() );
+                    return childTags.containsId( ((TagToken)token).getTagId() );
                 }
     		} else if ( !permittedTags.isEmpty() ) {
                 if ( token instanceof TagToken) {
-                    return !permittedTags.contains( ((TagToken)token).getName() );
+                    return !permittedTags.containsId( ((TagToken)token).getTagId() );
                 }
     		}
             return true;
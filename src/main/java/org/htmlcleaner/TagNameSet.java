@@ -0,0 +1,189 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Set of tag names used by {@link TagInfo} for its tag balancing rules. Every name added to such
+ * a set gets a small integer id, shared by all sets, and the set keeps its members also as bits indexed
+ * by those ids. This way the rules are checked with a bit test instead of hashing the tag name on
+ * every check, which the cleaner does for nearly every token.</p>
+ *
+ * <p>Ids are never released, so only the names used by the rules get them. Names of other tags,
+ * including unknown tags of the cleaned documents, are looked up as {@link #UNKNOWN_ID}.</p>
+ */
+class TagNameSet extends HashSet<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int UNKNOWN_ID = -1;
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    /**
+     * names indexed by their ids, replaced by a twice longer copy when it is full
+     */
+    private static volatile String[] names = new String[256];
+    /**
+     * number of names which have ids, increased only after the new id can be looked up
+     */
+    private static volatile int registeredCount;
+
+    private BitSet members = new BitSet();
+
+    TagNameSet() {
+    }
+
+    TagNameSet(Collection<String> tagNames) {
+        addAll(tagNames);
+    }
+
+    /**
+     * @param tagName
+     * @return id of the specified tag name, assigning a new one if the name doesn't have it yet
+     */
+    static int register(String tagName) {
+        if (tagName == null) {
+            return UNKNOWN_ID;
+        }
+        Integer id = ids.get(tagName);
+        return id != null ? id : assignId(tagName);
+    }
+
+    private static synchronized int assignId(String tagName) {
+        Integer id = ids.get(tagName);
+        if (id == null) {
+            id = registeredCount;
+            if (id == names.length) {
+                String[] newNames = new String[2 * id];
+                System.arraycopy(names, 0, newNames, 0, id);
+                names = newNames;
+            }
+            names[id] = tagName;
+            ids.put(tagName, id);
+            registeredCount = id + 1;
+        }
+        return id;
+    }
+
+    /**
+     * @return number of names which have ids. A name not found while this number was the same
+     * doesn't have an id yet.
+     */
+    static int getRegisteredCount() {
+        return registeredCount;
+    }
+
+    /**
+     * @param id
+     * @return name having the specified id
+     */
+    static String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * @param tagName
+     * @return id of the specified tag name, or {@link #UNKNOWN_ID} if it is not a member of any set
+     */
+    static int getId(String tagName) {
+        Integer id = tagName == null ? null : ids.get(tagName);
+        return id == null ? UNKNOWN_ID : id;
+    }
+
+    boolean containsId(int id) {
+        return id >= 0 && members.get(id);
+    }
+
+    @Override
+    public boolean add(String tagName) {
+        if (tagName == null) {
+            return super.add(tagName);
+        }
+        members.set(register(tagName));
+        return super.add(tagName);
+    }
+
+    @Override
+    public boolean remove(Object tagName) {
+        boolean removed = super.remove(tagName);
+        if (removed && tagName != null) {
+            members.clear(getId((String) tagName));
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        members.clear();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        final Iterator<String> iterator = super.iterator();
+        return new Iterator<String>() {
+            private String current;
+
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public String next() {
+                current = iterator.next();
+                return current;
+            }
+
+            public void remove() {
+                iterator.remove();
+                if (current != null) {
+                    members.clear(getId(current));
+                }
+            }
+        };
+    }
+
+    @Override
+    public Object clone() {
+        TagNameSet clone = (TagNameSet) super.clone();
+        clone.members = (BitSet) members.clone();
+        return clone;
+    }
+
+}
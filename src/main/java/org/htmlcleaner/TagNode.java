@@ -476,6 +476,27 @@ public class TagNode extends TagToken implements HtmlNode {
         return this.children.remove(child);
     }
 
+    /**
+     * Removes all the specified children in one pass over the children list.
+     *
+     * @param toRemove
+     */
+    void removeChildren(Set<?> toRemove) {
+        @SuppressWarnings("unchecked")
+        List<Object> childList = children;
+        int size = childList.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Object child = childList.get(i);
+            if (!toRemove.contains(child)) {
+                childList.set(kept++, child);
+            }
+        }
+        if (kept < size) {
+            childList.subList(kept, size).clear();
+        }
+    }
+
     /**
      * Removes all children (subelements and text content).
      */
@@ -483,6 +504,26 @@ public class TagNode extends TagToken implements HtmlNode {
         this.children.clear();
     }
 
+    /**
+     * Removes children starting from the specified index, which then no longer refer to this
+     * node as their parent.
+     *
+     * @param fromIndex
+     * @return removed children
+     */
+    List<BaseToken> detachChildren(int fromIndex) {
+        List<?> tail = children.subList(fromIndex, children.size());
+        List<BaseToken> detached = new ArrayList<BaseToken>( tail.size() );
+        for (Object child: tail) {
+            if (child instanceof TagNode) {
+                ((TagNode) child).parent = null;
+            }
+            detached.add( (BaseToken) child );
+        }
+        tail.clear();
+        return detached;
+    }
+
     void addItemForMoving(Object item) {
         if (itemsToMove == null) {
             itemsToMove = new ArrayList();
@@ -618,6 +659,7 @@ public class TagNode extends TagToken implements HtmlNode {
 
     public TagNode makeCopy() {
         TagNode copy = new TagNode(name);
+        copy.copyTagInfo(this);
         copy.attributes.putAll(attributes);
         return copy;
     }
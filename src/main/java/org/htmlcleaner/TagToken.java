@@ -45,6 +45,20 @@ public abstract class TagToken extends BaseTokenImpl {
 
     protected String name;
 
+    /**
+     * Provider the cached tag info was resolved with, and the tag info itself. Tag names
+     * never change after construction, so the lookup is done once per provider.
+     */
+    private transient ITagInfoProvider tagInfoProvider;
+    private transient TagInfo tagInfo;
+    private transient int tagId = UNRESOLVED_ID;
+    /**
+     * number of registered names when the name was found to have no id
+     */
+    private transient int unknownIdCount;
+
+    private static final int UNRESOLVED_ID = -2;
+
 	public TagToken() {
 	}
 
@@ -61,6 +75,49 @@ public abstract class TagToken extends BaseTokenImpl {
 		return name;
 	}
 
+    /**
+     * @param provider tag info provider to resolve this tag's name with
+     * @return tag info for this tag's name, or null if the provider doesn't know it. The result
+     * is cached, so repeated calls with the same provider don't repeat the lookup.
+     */
+    public TagInfo getTagInfo(ITagInfoProvider provider) {
+        if (provider != tagInfoProvider) {
+            tagInfo = provider.getTagInfo(name);
+            tagInfoProvider = provider;
+        }
+        return tagInfo;
+    }
+
+    /**
+     * Seeds the tag info cache with info already resolved for this tag's name.
+     */
+    void setTagInfo(ITagInfoProvider provider, TagInfo tagInfo) {
+        this.tagInfoProvider = provider;
+        this.tagInfo = tagInfo;
+    }
+
+    void copyTagInfo(TagToken other) {
+        setTagInfo(other.tagInfoProvider, other.tagInfo);
+        this.tagId = other.tagId;
+        this.unknownIdCount = other.unknownIdCount;
+    }
+
+    /**
+     * @return id of this tag's name used by the compiled tag balancing rules. Ids never change,
+     * but a name without an id may get one later, so that lookup is repeated after new names
+     * are registered.
+     * @see TagNameSet
+     */
+    int getTagId() {
+        if ( tagId == UNRESOLVED_ID
+                || (tagId == TagNameSet.UNKNOWN_ID && unknownIdCount != TagNameSet.getRegisteredCount()) ) {
+            // the count is taken first, so names registered during the lookup are looked up again
+            unknownIdCount = TagNameSet.getRegisteredCount();
+            tagId = TagNameSet.getId(name);
+        }
+        return tagId;
+    }
+
     abstract void addAttribute(String attName, String attValue);
 
 }
\ No newline at end of file
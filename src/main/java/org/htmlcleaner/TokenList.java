@@ -0,0 +1,145 @@
+/*  Copyright (c) 2006-2013, HtmlCleaner Team (Vladimir Nikic, Pat Moore, Scott Wilson)
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package org.htmlcleaner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>List of tokens on which the tree is built. Closing a tag moves all the items between its start
+ * token and the token which closed it into the tag node, leaving nulls in their places. The list
+ * remembers the end of every such emptied range, so that closing of the enclosing tag steps over it
+ * instead of iterating the same nulls again. This keeps the tree building linear even for very deep
+ * documents.</p>
+ *
+ * <p>Ranges are valid as long as no item is inserted before their end. Inserting tokens at the current
+ * position, which is always after the closed ranges, keeps them, while any other structural change
+ * forgets all of them.</p>
+ */
+class TokenList extends ArrayList<BaseToken> {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] closedUntil = new int[64];
+    private int maxClosedUntil;
+    private int expectedModCount;
+
+    /**
+     * Remembers that items after the specified position, up to the specified index, are all nulls.
+     * @param position
+     * @param until index after the last null item
+     */
+    void setClosed(int position, int until) {
+        checkModCount();
+        if (until <= position + 1) {
+            return;
+        }
+        if (position >= closedUntil.length) {
+            int[] newClosedUntil = new int[Math.max(closedUntil.length * 2, position + 1)];
+            System.arraycopy(closedUntil, 0, newClosedUntil, 0, closedUntil.length);
+            closedUntil = newClosedUntil;
+        }
+        closedUntil[position] = until;
+        maxClosedUntil = Math.max(maxClosedUntil, until);
+    }
+
+    /**
+     * @param position
+     * @return index after the range of nulls which follows the specified position, or 0 if unknown
+     */
+    int getClosedUntil(int position) {
+        checkModCount();
+        return position < closedUntil.length ? closedUntil[position] : 0;
+    }
+
+    /**
+     * Removes the nulls at the end of the list, together with the ranges recorded for them.
+     */
+    void trimTrailingNulls() {
+        checkModCount();
+        int size = size();
+        int newSize = size;
+        while (newSize > 0 && get(newSize - 1) == null) {
+            newSize--;
+        }
+        if (newSize < size) {
+            // the range of the last item may span the removed nulls
+            for (int i = Math.max(newSize - 1, 0); i < Math.min(size, closedUntil.length); i++) {
+                closedUntil[i] = 0;
+            }
+            maxClosedUntil = Math.min(maxClosedUntil, newSize);
+            removeRange(newSize, size);
+            expectedModCount = modCount;
+        }
+    }
+
+    @Override
+    public boolean add(BaseToken token) {
+        checkModCount();
+        boolean added = super.add(token);
+        expectedModCount = modCount;
+        return added;
+    }
+
+    @Override
+    public void add(int index, BaseToken token) {
+        checkModCount();
+        if (index < maxClosedUntil) {
+            forget();
+        }
+        super.add(index, token);
+        expectedModCount = modCount;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        forget();
+    }
+
+    private void checkModCount() {
+        if (modCount != expectedModCount) {
+            forget();
+        }
+    }
+
+    private void forget() {
+        if (maxClosedUntil > 0) {
+            Arrays.fill(closedUntil, 0);
+            maxClosedUntil = 0;
+        }
+        expectedModCount = modCount;
+    }
+
+}
@@ -38,7 +38,10 @@
 package org.htmlcleaner;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -79,6 +82,40 @@ public class Utils {
         return buffer;
     }
 
+    /**
+     * Releases memory-mapped buffer without waiting for it to be garbage collected, which keeps the
+     * file open until then. This is done through the JVM internals, so it may not be possible.
+     * The buffer must not be accessed afterwards.
+     * @param buffer memory-mapped buffer
+     * @return true if the buffer was released
+     */
+    static boolean unmap(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // before Java 9 the buffer gives its cleaner
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner == null) {
+                    return false;
+                }
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return true;
+            }
+            Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            invokeCleaner.invoke(unsafeField.get(null), buffer);
+            return true;
+        } catch (Exception e) {
+            // left to the garbage collector
+            return false;
+        }
+    }
+
     /**
      * Escapes XML string.
      * @param s String to be escaped
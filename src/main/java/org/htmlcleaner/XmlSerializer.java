@@ -136,7 +136,7 @@ public abstract class XmlSerializer extends Serializer {
     }
 
     protected boolean isMinimizedTagSyntax(TagNode tagNode) {
-        final TagInfo tagInfo = props.getTagInfoProvider().getTagInfo(tagNode.getName());
+        final TagInfo tagInfo = tagNode.getTagInfo(props.getTagInfoProvider());
         return tagNode.isEmpty() && (tagInfo == null || tagInfo.isMinimizedTagPermitted()) &&
                ( props.isUseEmptyElementTags() || (tagInfo != null && tagInfo.isEmptyTag()) );
     }
@@ -55,7 +55,7 @@ public class TagNodeEmptyContentCondition implements ITagNodeCondition {
     }
     private boolean satisfy(TagNode tagNode, boolean override) {
         String name = tagNode.getName();
-        TagInfo tagInfo = tagInfoProvider.getTagInfo(name);
+        TagInfo tagInfo = tagNode.getTagInfo(tagInfoProvider);
         //Only _block_ elements can match.
         if (tagInfo != null && !hasIdAttributeSet(tagNode) && none != tagInfo.getDisplay() && !tagInfo.isEmptyTag() && (override || !unsafeBlockElements.contains(name))) {
             CharSequence contentString = tagNode.getText();
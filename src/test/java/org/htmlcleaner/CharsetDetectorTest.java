@@ -0,0 +1,96 @@
+package org.htmlcleaner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for charset detection from the byte order mark and META tags.
+ */
+public class CharsetDetectorTest extends TestCase {
+
+    public void testMeta() throws IOException {
+        assertEquals("windows-1251", detect("<html><head><meta charset=\"windows-1251\"></head>"));
+        assertEquals("ISO-8859-2", detect("<HTML><META HTTP-EQUIV='Content-Type' CONTENT='text/html; Charset=ISO-8859-2'>"));
+        assertEquals("KOI8-R", detect("<meta content=text/html;charset=KOI8-R http-equiv=content-type>"));
+        assertEquals("UTF-8", detect("<meta charset='utf-16'>"));
+        assertEquals("default", detect("<!-- <meta charset='windows-1251'> --><p>text</p>"));
+        assertEquals("default", detect("<meta charset='no-such-charset'><p>text</p>"));
+        assertEquals("default", detect("<metadata charset='windows-1251'>"));
+        assertEquals("utf-8", detect("<meta charset=utf-8/>"));
+        // charset is taken only from the charset attribute and content type pragma
+        assertEquals("default", detect("<meta name='description' content='charset=windows-1251'>"));
+        assertEquals("default", detect("<meta http-equiv='refresh' content='0; charset=windows-1251'>"));
+        assertEquals("default", detect("<meta content='text/html; charset=windows-1251'>"));
+        assertEquals("default", detect("<meta name='charset=windows-1251' content='x'>"));
+        // comment which isn't terminated within the examined bytes
+        assertEquals("default", detect("<!-- <meta charset='windows-1251'>"));
+    }
+
+    public void testByteOrderMarkNotSkipped() throws IOException {
+        // stream which never skips, the mark is read instead
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'a'})) {
+            @Override
+            public long skip(long n) {
+                return 0;
+            }
+        };
+        assertEquals("UTF-8", CharsetDetector.detect(in, "default"));
+        assertEquals('a', in.read());
+    }
+
+    public void testByteOrderMark() throws IOException {
+        InputStream in = new ByteArrayInputStream(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'a'});
+        assertEquals("UTF-8", CharsetDetector.detect(in, "default"));
+        assertEquals('a', in.read());
+
+        in = new ByteArrayInputStream(new byte[] {(byte) 0xFF, (byte) 0xFE, 'a', 0});
+        assertEquals("UTF-16", CharsetDetector.detect(in, "default"));
+        assertEquals(0xFF, in.read());
+    }
+
+    public void testCleanStream() throws IOException {
+        CleanerProperties properties = new CleanerProperties();
+        properties.setDetectCharset(true);
+        HtmlCleaner cleaner = new HtmlCleaner(properties);
+
+        StringBuilder html = new StringBuilder("<html><head><meta http-equiv='content-type' content='text/html; charset=windows-1251'></head><body>");
+        for (int i = 0; i < 1000; i++) {
+            html.append("<p>Привет</p>");
+        }
+        byte[] bytes = html.toString().getBytes("windows-1251");
+
+        // stream without mark support
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        TagNode p = cleaner.clean(in).findElementByName("p", true);
+        assertEquals("Привет", p.getText().toString());
+
+        File file = File.createTempFile("htmlcleaner", ".html");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+            out.write("<p>Привет</p>".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        properties.setCharset("ISO-8859-1");
+        TagNode body = cleaner.clean(file).findElementByName("body", true);
+        assertEquals("Привет", body.getText().toString());
+    }
+
+    private String detect(String html) throws IOException {
+        return CharsetDetector.detect(new ByteArrayInputStream(html.getBytes("ISO-8859-1")), "default");
+    }
+
+}
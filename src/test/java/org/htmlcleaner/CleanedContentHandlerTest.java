@@ -0,0 +1,171 @@
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for cleaning with {@link CleanedContentHandler}.
+ */
+public class CleanedContentHandlerTest extends TestCase {
+
+    private CleanerProperties properties;
+
+    @Override
+    protected void setUp() throws Exception {
+        properties = new CleanerProperties();
+        properties.setAddNewlineToHeadAndBody(false);
+    }
+
+    public void testBalancedEvents() throws IOException {
+        assertEquals(
+            "[start][html][head][/head][body][p class=a]one[b]two[/b][/p][p][b]three[/b][/p][/body][/html][end]",
+            events("<p class=a>one<b>two<p>three")
+        );
+    }
+
+    public void testHeadAndComments() throws IOException {
+        assertEquals(
+            "[start html][html][head][title]t[/title][/head][body]{ c }[table][tbody][tr][td]x[/td][/tr][/tbody][/table][/body][/html][end]",
+            events("<!DOCTYPE html><body><!-- c --><table><td>x<title>t</title></table>")
+        );
+    }
+
+    public void testOmitHtmlEnvelope() throws IOException {
+        properties.setOmitHtmlEnvelope(true);
+        assertEquals("[start][div]text[/div][end]", events("<div>text"));
+    }
+
+    public void testDeepNesting() throws IOException {
+        int depth = 100000;
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            html.append("<div>");
+        }
+        html.append("x");
+        final int[] counts = new int[3];
+        new HtmlCleaner(properties).clean(new StringReader(html.toString()), new CleanedContentHandler() {
+            public void startDocument(DoctypeToken docType) {
+            }
+            public void startElement(String name, Map<String, String> attributes) {
+                if ("div".equals(name)) {
+                    counts[0]++;
+                }
+            }
+            public void endElement(String name) {
+                if ("div".equals(name)) {
+                    counts[1]++;
+                }
+            }
+            public void characters(String content) {
+                counts[2]++;
+            }
+            public void comment(String content) {
+            }
+            public void endDocument() {
+            }
+        });
+        assertEquals(depth, counts[0]);
+        assertEquals(depth, counts[1]);
+        assertEquals(1, counts[2]);
+    }
+
+    public void testEventsFiredWhileReading() throws IOException {
+        StringBuilder html = new StringBuilder("<html><head><title>t</title><meta name=a content=b></head><body>");
+        for (int i = 0; i < 10000; i++) {
+            html.append("<p>x</p>\n");
+        }
+        html.append("</body></html>");
+        final int length = html.length();
+        final int[] read = new int[1];
+        final int[] readAtFirstParagraph = new int[] {-1};
+        Reader reader = new StringReader(html.toString()) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int count = super.read(cbuf, off, len);
+                if (count > 0) {
+                    read[0] += count;
+                }
+                return count;
+            }
+        };
+        final StringBuilder head = new StringBuilder();
+        new HtmlCleaner(properties).clean(reader, new CleanedContentHandler() {
+            private boolean inHead;
+            public void startDocument(DoctypeToken docType) {
+            }
+            public void startElement(String name, Map<String, String> attributes) {
+                if ("head".equals(name)) {
+                    inHead = true;
+                } else if (inHead) {
+                    head.append(name).append(' ');
+                } else if ("p".equals(name) && readAtFirstParagraph[0] < 0) {
+                    readAtFirstParagraph[0] = read[0];
+                }
+            }
+            public void endElement(String name) {
+                if ("head".equals(name)) {
+                    inHead = false;
+                }
+            }
+            public void characters(String content) {
+            }
+            public void comment(String content) {
+            }
+            public void endDocument() {
+            }
+        });
+        assertEquals("title meta ", head.toString());
+        assertTrue(readAtFirstParagraph[0] > 0);
+        assertTrue(readAtFirstParagraph[0] < length / 2);
+    }
+
+    public void testHeadTagsAfterFiredContent() throws IOException {
+        assertEquals(
+            "[start][html][head][title]t[/title][/head][body][p]a[/p][meta name=m][/meta][/body][/html][end]",
+            events("<title>t</title><p>a</p><meta name=m>")
+        );
+        assertEquals(
+            "[start][html][head][/head][body][p]a[/p][p]b[/p][/body][/html][end]",
+            events("<html><body><p>a</p><p>b</p></body></html>")
+        );
+    }
+
+    public void testFiredContentWithoutEnvelope() throws IOException {
+        properties.setOmitHtmlEnvelope(true);
+        assertEquals("[start][p]a[/p][div]b[/div]c[end]", events("<title>t</title><p>a</p><div>b</div>c"));
+    }
+
+    private String events(String html) throws IOException {
+        final StringBuilder result = new StringBuilder();
+        new HtmlCleaner(properties).clean(new StringReader(html), new CleanedContentHandler() {
+            public void startDocument(DoctypeToken docType) {
+                result.append(docType == null ? "[start]" : "[start " + docType.getPart1() + "]");
+            }
+            public void startElement(String name, Map<String, String> attributes) {
+                result.append("[").append(name);
+                for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                    result.append(" ").append(entry.getKey()).append("=").append(entry.getValue());
+                }
+                result.append("]");
+            }
+            public void endElement(String name) {
+                result.append("[/").append(name).append("]");
+            }
+            public void characters(String content) {
+                result.append(content);
+            }
+            public void comment(String content) {
+                result.append("{").append(content).append("}");
+            }
+            public void endDocument() {
+                result.append("[end]");
+            }
+        });
+        return result.toString();
+    }
+
+}
@@ -2,8 +2,10 @@ package org.htmlcleaner;
 
 import java.io.IOException;
 
+import org.htmlcleaner.conditional.ITagNodeCondition;
 import org.htmlcleaner.conditional.TagNodeEmptyContentCondition;
 import org.htmlcleaner.conditional.TagNodeInsignificantBrCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
 
 import junit.framework.TestCase;
 
@@ -173,6 +175,40 @@ public class CollapseHtmlTest extends TestCase {
         assertEquals("<b id=\"notme\"></b><span id=\"norme\"></span>", serializer.getAsString(collapsed));
     }
 
+    /**
+     * Elements becoming empty only after the elements below them are pruned are collapsed too.
+     */
+    public void testCollapseAfterPruningBelow() throws IOException {
+        properties.addPruneTagNodeCondition(new TagNodeNameCondition("img"));
+        TagNode collapsed = cleaner.clean("<div><p><img src=\"a\"></p></div><p>text</p>");
+        assertEquals("<p>text</p>", serializer.getAsString(collapsed));
+    }
+
+    /**
+     * Nested empty elements are collapsed in one pass, checking each element at most twice.
+     */
+    public void testCollapseNestedInOnePass() throws IOException {
+        final int[] checks = new int[1];
+        final ITagNodeCondition emptyContent = new TagNodeEmptyContentCondition(properties.getTagInfoProvider());
+        final ITagNodeCondition insignificantBr = new TagNodeInsignificantBrCondition();
+        properties.reset();
+        properties.setOmitHtmlEnvelope(true);
+        properties.setOmitXmlDeclaration(true);
+        properties.addPruneTagNodeCondition(new ITagNodeCondition() {
+            public boolean satisfy(TagNode tagNode) {
+                checks[0]++;
+                return emptyContent.satisfy(tagNode) || insignificantBr.satisfy(tagNode);
+            }
+        });
+        StringBuilder html = new StringBuilder("<p>text</p>");
+        for (int i = 0; i < 100; i++) {
+            html.append("<u><br>");
+        }
+        TagNode collapsed = cleaner.clean(html.toString());
+        assertEquals("<p>text</p>", serializer.getAsString(collapsed));
+        assertTrue("checks: " + checks[0], checks[0] <= 2 * 200 + 2);
+    }
+
     public void testCollapseAggressively() throws IOException {
         properties.addPruneTagNodeCondition(new TagNodeEmptyContentCondition(properties.getTagInfoProvider()));
         TagNode collapsed;
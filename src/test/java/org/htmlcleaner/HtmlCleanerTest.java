@@ -1,8 +1,20 @@
 package org.htmlcleaner;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
 
 import junit.framework.TestCase;
 
@@ -97,6 +109,539 @@ public class HtmlCleanerTest extends TestCase {
         HtmlCleaner c = new HtmlCleaner(cp);
         TagNode root = c.clean(in);
     }
+    public void testCleanCharArray() throws Exception {
+        String initial = readFile("src/test/resources/test-chinese-issue-64.html") + "<p>\ttab\u0001</p>";
+        char[] content = ("xx" + initial + "yy").toCharArray();
+        char[] original = content.clone();
+        String expected = serialize(cleaner.clean(initial));
+        assertEquals(expected, serialize(cleaner.clean(content, 2, initial.length())));
+        assertTrue("Content must not be modified", Arrays.equals(original, content));
+    }
+
+    public void testCleanCharSequence() throws Exception {
+        String initial = readFile("src/test/resources/test-chinese-issue-64.html");
+        String expected = serialize(cleaner.clean(new StringReader(initial), new CleanTimeValues()));
+        assertEquals(expected, serialize(cleaner.clean(new StringBuilder(initial))));
+        assertEquals(expected, serialize(cleaner.clean(CharBuffer.wrap(initial))));
+    }
+
+    public void testWorkingBufferSize() throws Exception {
+        assertEquals(HtmlTokenizer.WORKING_BUFFER_SIZE, HtmlTokenizer.calculateBufferSize(0, -1));
+        assertEquals(HtmlTokenizer.WORKING_BUFFER_SIZE, HtmlTokenizer.calculateBufferSize(0, 10));
+        assertEquals(5001, HtmlTokenizer.calculateBufferSize(0, 5000));
+        assertEquals(HtmlTokenizer.MAX_WORKING_BUFFER_SIZE, HtmlTokenizer.calculateBufferSize(0, 50L * 1024 * 1024));
+        assertEquals(HtmlTokenizer.MIN_WORKING_BUFFER_SIZE, HtmlTokenizer.calculateBufferSize(1, 5000));
+        assertEquals(4096, HtmlTokenizer.calculateBufferSize(4096, 5000));
+
+        String filename = "src/test/resources/test5.html";
+        String initial = readFile(filename);
+        String expected = serialize(cleaner.clean(new StringReader(initial), new CleanTimeValues()));
+        assertEquals(expected, serialize(cleaner.clean(initial)));
+        assertEquals(expected, serialize(cleaner.clean(new File(filename), "UTF-8")));
+        FileInputStream in = new FileInputStream(filename);
+        try {
+            assertEquals(expected, serialize(cleaner.clean(in, "UTF-8")));
+        } finally {
+            in.close();
+        }
+
+        for (int bufferSize : new int[] {HtmlTokenizer.MIN_WORKING_BUFFER_SIZE, 100, 1000, 100000}) {
+            cleaner.getProperties().setBufferSize(bufferSize);
+            assertEquals(expected, serialize(cleaner.clean(new StringReader(initial), new CleanTimeValues())));
+            assertEquals(expected, serialize(cleaner.clean(initial)));
+        }
+    }
+
+    public void testTokensLongerThanWorkingBuffer() throws Exception {
+        StringBuilder longText = new StringBuilder("word");
+        for (int i = 1; i < 1000; i++) {
+            longText.append(" word").append(i);
+        }
+        String initial = "<div title=\"" + longText + "\">" + longText + "<!--" + longText + "--><p>" + longText + "</p></div>";
+
+        cleaner.getProperties().setBufferSize(HtmlTokenizer.MIN_WORKING_BUFFER_SIZE);
+        TagNode div = cleaner.clean(new StringReader(initial), new CleanTimeValues()).findElementByName("div", true);
+        assertEquals(longText.toString(), div.getAttributeByName("title"));
+        assertEquals(longText.toString(), ((ContentNode) div.getAllChildren().get(0)).getContent());
+        assertEquals(longText.toString(), ((CommentNode) div.getAllChildren().get(1)).getContent());
+        assertEquals(longText.toString(), div.findElementByName("p", false).getText().toString());
+    }
+
+    public void testCleanTimeValuesReused() throws Exception {
+        String large = readFile("src/test/resources/test5.html");
+        String small = "<p>small <b>snippet</b></p>";
+        String expectedLarge = serialize(cleaner.clean(new StringReader(large), new CleanTimeValues()));
+        String expectedSmall = serialize(cleaner.clean(new StringReader(small), new CleanTimeValues()));
+
+        TagNode largeNode = cleaner.clean(large);
+        assertEquals(expectedSmall, serialize(cleaner.clean(small)));
+        assertEquals(expectedSmall, serialize(cleaner.clean(small.toCharArray(), 0, small.length())));
+        assertEquals(expectedLarge, serialize(cleaner.clean(large)));
+        // trees of earlier cleanings are not affected
+        assertEquals(expectedLarge, serialize(largeNode));
+
+        // cleaning started while another one is in progress uses values of its own
+        final List<String> nested = new ArrayList<String>();
+        cleaner.getProperties().setSubtreeCompletionListener(new SubtreeCompletionListener() {
+            public boolean subtreeCompleted(TagNode tagNode) {
+                if ("b".equals(tagNode.getName())) {
+                    nested.add( cleaner.clean("<i>" + tagNode.getText()).findElementByName("i", true).getText().toString() );
+                }
+                return false;
+            }
+        });
+        assertEquals(expectedSmall, serialize(cleaner.clean(small)));
+        cleaner.getProperties().setSubtreeCompletionListener(null);
+        assertEquals(Arrays.asList("snippet"), nested);
+        assertEquals(expectedSmall, serialize(cleaner.clean(small)));
+    }
+
+    public void testTrackAllTags() throws Exception {
+        String html = "<div><p>a<mytag>b</mytag><P>c</div><span>x";
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleaner.clean(new StringReader(html), cleanTimeValues);
+        assertTrue(cleaner.getAllTags(cleanTimeValues).isEmpty());
+
+        cleaner.getProperties().setTrackAllTags(true);
+        cleaner.clean(new StringReader(html), cleanTimeValues);
+        assertEquals(Arrays.asList("div", "mytag", "p", "span"), new ArrayList<String>(cleaner.getAllTags(cleanTimeValues)));
+    }
+
+    public void testThreadValuesSharedByCleaners() throws Exception {
+        String html = "<div><p>text<table><tr><td>cell</td></tr></table></div>";
+        new HtmlCleaner().clean(html);
+        CleanTimeValues values = HtmlCleaner.getThreadCleanTimeValues();
+        assertNotNull(values);
+        for (int i = 0; i < 10; i++) {
+            new HtmlCleaner().clean(html);
+            // the same values are reused by every cleaner, and refer to nothing cleaned
+            assertSame(values, HtmlCleaner.getThreadCleanTimeValues());
+            assertFalse(values.inUse);
+            assertTrue(values.tokenList.isEmpty());
+            assertTrue(values.nestingStates.isEmpty());
+            assertNull(values.rootNode);
+            assertNull(values.bodyNode);
+        }
+
+        // buffer of large document is not kept
+        StringBuilder large = new StringBuilder();
+        while (large.length() < 4 * CleanTimeValues.MAX_KEPT_BUFFER_SIZE) {
+            large.append("<p>paragraph</p>");
+        }
+        new HtmlCleaner().clean(new ByteArrayInputStream(large.toString().getBytes("UTF-8")), "UTF-8");
+        assertSame(values, HtmlCleaner.getThreadCleanTimeValues());
+        assertTrue(values.workingBuffer == null || values.workingBuffer.length <= CleanTimeValues.MAX_KEPT_BUFFER_SIZE);
+    }
+
+    public void testTagIdOfNameRegisteredLater() throws Exception {
+        TagNode node = new TagNode("registered-later");
+        assertEquals(TagNameSet.UNKNOWN_ID, node.getTagId());
+        int id = TagNameSet.register("registered-later");
+        assertEquals(id, node.getTagId());
+
+        // rules of a tag info created after the name was looked up apply to it
+        TagNode other = new TagNode("also-registered-later");
+        assertEquals(TagNameSet.UNKNOWN_ID, other.getTagId());
+        TagInfo info = new TagInfo("container", ContentType.all, BelongsTo.BODY, false, false, false,
+            CloseTag.required, Display.block);
+        info.defineAllowedChildrenTags("also-registered-later");
+        assertTrue( info.allowsItem(other) );
+    }
+
+    public void testUnknownTagsGetNoId() throws Exception {
+        // tag infos for any tag, as created by providers which allow unknown tags
+        final DefaultTagProvider defaultProvider = DefaultTagProvider.INSTANCE;
+        HtmlCleaner anyTagCleaner = new HtmlCleaner(new ITagInfoProvider() {
+            public TagInfo getTagInfo(String tagName) {
+                TagInfo tagInfo = defaultProvider.getTagInfo(tagName);
+                return tagInfo != null ? tagInfo : new TagInfo(tagName, ContentType.all, BelongsTo.BODY,
+                    false, false, false, CloseTag.required, Display.inline);
+            }
+        });
+        int registeredCount = TagNameSet.getRegisteredCount();
+        anyTagCleaner.clean("<div><unknown-1>a</unknown-1><unknown-2>b</unknown-2></div>");
+        assertEquals(registeredCount, TagNameSet.getRegisteredCount());
+        assertEquals(TagNameSet.UNKNOWN_ID, TagNameSet.getId("unknown-1"));
+
+        // name gets id once a rule names it
+        TagInfo later = new TagInfo("named-by-later-rule", ContentType.all, BelongsTo.BODY, false, false, false,
+            CloseTag.required, Display.block);
+        TagInfo info = new TagInfo("closing", ContentType.all, BelongsTo.BODY, false, false, false,
+            CloseTag.required, Display.block);
+        assertFalse( info.isMustCloseTag(later) );
+        info.defineCloseBeforeTags("named-by-later-rule");
+        assertTrue( info.isMustCloseTag(later) );
+    }
+
+    public void testCleanFile() throws Exception {
+        String filename = "src/test/resources/test-chinese-issue-64.html";
+        String initial = readFile(filename);
+        String expected = serialize(cleaner.clean(new StringReader(initial), new CleanTimeValues()));
+        assertEquals(expected, serialize(cleaner.clean(new File(filename), "UTF-8")));
+
+        // surrogate pairs and malformed bytes, decoded through small working buffer
+        StringBuilder content = new StringBuilder("<p title='𝄞'>");
+        for (int i = 0; i < 100; i++) {
+            content.append(i).append(" 𝄞é ");
+        }
+        content.append("</p>");
+        File file = writeTempFile(content.toString().getBytes("UTF-8"), new byte[] {(byte) 0xC3});
+        cleaner.getProperties().setBufferSize(HtmlTokenizer.MIN_WORKING_BUFFER_SIZE);
+        assertEquals(cleanReader(file, "UTF-8"), serialize(cleaner.clean(file, "UTF-8")));
+        assertEquals(cleanReader(file, "ISO-8859-1"), serialize(cleaner.clean(file, "ISO-8859-1")));
+        cleaner.getProperties().setBufferSize(0);
+
+        // large file is memory-mapped
+        StringBuilder large = new StringBuilder("<table>");
+        while (large.length() < 2 * 1024 * 1024) {
+            large.append("<tr><td>élément</td><td><a href='x'>").append(large.length()).append("</a></td>");
+        }
+        file = writeTempFile(large.toString().getBytes("UTF-8"));
+        assertEquals(serialize(cleaner.clean(large)), serialize(cleaner.clean(file, "UTF-8")));
+        // mapping doesn't keep the file open
+        assertTrue(file.delete());
+        file = writeTempFile(large.toString().getBytes("UTF-8"));
+
+        try {
+            cleaner.clean(file, "no-such-charset");
+            fail();
+        } catch (UnsupportedEncodingException e) {
+            // expected
+        }
+    }
+
+    public void testCleaningSession() throws Exception {
+        String[] filenames = {"src/test/resources/test5.html", "src/test/resources/script_test.html",
+            "src/test/resources/test-chinese-issue-64.html"};
+        for (String filename : filenames) {
+            String initial = readFile(filename) + "<p>a &amp; b<!-- c --></p><script>if (a < b) {}</script>";
+            String expected = serialize(cleaner.clean(initial));
+            for (int chunkSize : new int[] {1, 7, 100, 5000}) {
+                CleaningSession session = cleaner.newSession();
+                char[] chunk = new char[chunkSize];
+                for (int i = 0; i < initial.length(); i += chunkSize) {
+                    int length = Math.min(chunkSize, initial.length() - i);
+                    initial.getChars(i, i + length, chunk, 0);
+                    // buffer is reused, content must be copied
+                    session.feed(CharBuffer.wrap(chunk, 0, length));
+                }
+                assertEquals(filename + " in chunks of " + chunkSize, expected, serialize(session.finish()));
+            }
+        }
+
+        CleaningSession session = cleaner.newSession();
+        session.feed(CharBuffer.wrap("<p>text"));
+        TagNode node = session.finish();
+        assertSame(node, session.finish());
+        assertEquals("text", node.findElementByName("p", true).getText().toString());
+        try {
+            session.feed(CharBuffer.wrap("</p>"));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testCleaningSessionCorpus() throws Exception {
+        File[] files = new File("src/test/resources").listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if ( !file.getName().endsWith(".html") ) {
+                continue;
+            }
+            String initial = readFile(file.getPath());
+            String expected = serialize(cleaner.clean(initial));
+            for (int chunkSize : new int[] {1, 7, 4096}) {
+                CleaningSession session = cleaner.newSession();
+                for (int i = 0; i < initial.length(); i += chunkSize) {
+                    session.feed(CharBuffer.wrap(initial, i, Math.min(i + chunkSize, initial.length())));
+                }
+                assertEquals(file.getName() + " in chunks of " + chunkSize, expected, serialize(session.finish()));
+            }
+        }
+    }
+
+    public void testCleaningSessionLongTokens() throws Exception {
+        cleaner.getProperties().setOmitComments(false);
+        String[][] envelopes = { {"<script>", "</script>"}, {"<!--", "-->"}, {"<p>", "</p>"} };
+        for (String[] envelope : envelopes) {
+            // long tokens with markup characters in every portion, which make the step to be repeated
+            StringBuilder content = new StringBuilder(envelope[0]);
+            while (content.length() < 2 * 1024 * 1024) {
+                content.append("if (a < b) x - y > 3;\n");
+            }
+            String html = content.append(envelope[1]).toString();
+            String expected = serialize(cleaner.clean(html));
+
+            CleaningSession session = cleaner.newSession();
+            for (int i = 0; i < html.length(); i += 4096) {
+                session.feed(CharBuffer.wrap(html, i, Math.min(i + 4096, html.length())));
+            }
+            assertEquals(envelope[0], expected, serialize(session.finish()));
+        }
+    }
+
+    public void testSubtreeCompletionListener() throws Exception {
+        StringBuilder content = new StringBuilder("<p>first</p><table>");
+        for (int i = 0; i < 1000; i++) {
+            content.append("<tr><td>").append(i).append("<meta name=\"m\"></td></tr>\n");
+        }
+        content.append("</table><p>last");
+        String html = content.toString();
+        String expected = serialize(cleaner.clean(html));
+
+        final StringBuilder rows = new StringBuilder();
+        cleaner.getProperties().setSubtreeCompletionListener(new SubtreeCompletionListener() {
+            public boolean subtreeCompleted(TagNode tagNode) {
+                return false;
+            }
+        });
+        assertEquals(expected, serialize(cleaner.clean(html)));
+
+        cleaner.getProperties().setSubtreeCompletionListener(new SubtreeCompletionListener() {
+            public boolean subtreeCompleted(TagNode tagNode) {
+                if ("tr".equals(tagNode.getName())) {
+                    assertNull(tagNode.getParent());
+                    assertNotNull(tagNode.findElementByName("meta", true));
+                    rows.append(tagNode.getText()).append(',');
+                    return true;
+                }
+                return false;
+            }
+        });
+        TagNode node = cleaner.clean(html);
+        cleaner.getProperties().setSubtreeCompletionListener(null);
+        assertTrue(rows.toString().startsWith("0,1,2,"));
+        assertTrue(rows.toString().endsWith(",998,999,"));
+        assertEquals(0, node.getElementsByName("tr", true).length);
+        assertEquals(0, node.getElementsByName("meta", true).length);
+        assertEquals(2, node.getElementsByName("p", true).length);
+        assertNotNull(node.findElementByName("table", true));
+    }
+
+    public void testTrackPositions() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("<div>\n  <p id='p").append(i).append("'>text ").append(i).append("</p>\n</div>\n");
+        }
+        String initial = content.toString();
+
+        TagNode node = cleaner.clean(initial);
+        assertEquals(0, node.findElementByAttValue("id", "p0", true, false).getRow());
+
+        cleaner.getProperties().setTrackPositions(true);
+        cleaner.getProperties().setBufferSize(HtmlTokenizer.MIN_WORKING_BUFFER_SIZE);
+        char[] chars = ("xx\n" + initial).toCharArray();
+        CleaningSession session = cleaner.newSession();
+        for (int i = 0; i < initial.length(); i += 10) {
+            session.feed(CharBuffer.wrap(initial, i, Math.min(i + 10, initial.length())));
+        }
+        TagNode[] nodes = {
+            cleaner.clean(initial),
+            cleaner.clean(new StringReader(initial), new CleanTimeValues()),
+            cleaner.clean(chars, 3, initial.length()),
+            session.finish()
+        };
+        for (TagNode root : nodes) {
+            for (int i = 0; i < 500; i++) {
+                TagNode p = root.findElementByAttValue("id", "p" + i, true, false);
+                assertEquals(i * 3 + 2, p.getRow());
+                assertEquals(3, p.getCol());
+                assertEquals(i * 3 + 1, p.getParent().getRow());
+                assertEquals(1, p.getParent().getCol());
+            }
+        }
+
+        // column found from the offset is kept when row is set explicitly
+        TagNode p = cleaner.clean(initial).findElementByAttValue("id", "p1", true, false);
+        p.setRow(100);
+        assertEquals(100, p.getRow());
+        assertEquals(3, p.getCol());
+    }
+
+    public void testDeepNesting() throws Exception {
+        int depth = 100000;
+        StringBuilder nested = new StringBuilder();
+        StringBuilder unclosed = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            nested.append("<div>");
+            unclosed.append("<div>").append(i);
+        }
+        nested.append("x");
+        for (int i = 0; i < depth; i++) {
+            nested.append("</div>");
+        }
+
+        for (String content : new String[] {nested.toString(), unclosed.toString()}) {
+            TagNode node = cleaner.clean(content).findElementByName("body", false);
+            int count = 0;
+            while (node.getChildTagList().size() > 0) {
+                node = (TagNode) node.getChildTagList().get(0);
+                count++;
+            }
+            assertEquals(depth, count);
+        }
+    }
+
+    /**
+     * Misnested tags at every level of a deep document, which took quadratic time to close
+     * before closed ranges of the token list were skipped.
+     */
+    public void testDeepMisnesting() throws Exception {
+        int depth = 100000;
+        TagNode div = cleaner.clean(deepMisnesting(depth)).findElementByName("div", true);
+        int count = 0;
+        while (div != null) {
+            count++;
+            List<TagNode> children = div.getChildTagList();
+            assertEquals("b", children.get(0).getName());
+            assertEquals("x", children.get(0).findElementByName("i", false).getText().toString());
+            div = children.size() > 1 ? children.get(1) : null;
+        }
+        assertEquals(depth, count);
+    }
+
+    public void testDeepMisnestingScales() throws Exception {
+        long visits = countTokenVisits(2000);
+        long largeVisits = countTokenVisits(8000);
+        // linear tree building visits 4 times more tokens, quadratic would visit 16 times more
+        assertTrue("visits: " + visits + ", " + largeVisits, largeVisits < 6 * visits);
+    }
+
+    private long countTokenVisits(int depth) throws IOException {
+        CountingTokenList tokenList = new CountingTokenList();
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleanTimeValues.tokenList = tokenList;
+        cleaner.clean(new StringReader(deepMisnesting(depth)), cleanTimeValues);
+        return tokenList.visits;
+    }
+
+    private String deepMisnesting(int depth) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            content.append("<div><b><i>x</b></i>");
+        }
+        for (int i = 0; i < depth; i++) {
+            content.append("</div>");
+        }
+        return content.toString();
+    }
+
+    /**
+     * Token list counting the items read from it.
+     */
+    private static class CountingTokenList extends TokenList {
+
+        private static final long serialVersionUID = 1L;
+
+        long visits;
+
+        @Override
+        public BaseToken get(int index) {
+            visits++;
+            return super.get(index);
+        }
+
+        @Override
+        public Iterator<BaseToken> iterator() {
+            return listIterator(0);
+        }
+
+        @Override
+        public ListIterator<BaseToken> listIterator() {
+            return listIterator(0);
+        }
+
+        @Override
+        public ListIterator<BaseToken> listIterator(int index) {
+            final ListIterator<BaseToken> iterator = super.listIterator(index);
+            return new ListIterator<BaseToken>() {
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                public BaseToken next() {
+                    visits++;
+                    return iterator.next();
+                }
+                public boolean hasPrevious() {
+                    return iterator.hasPrevious();
+                }
+                public BaseToken previous() {
+                    visits++;
+                    return iterator.previous();
+                }
+                public int nextIndex() {
+                    return iterator.nextIndex();
+                }
+                public int previousIndex() {
+                    return iterator.previousIndex();
+                }
+                public void remove() {
+                    iterator.remove();
+                }
+                public void set(BaseToken token) {
+                    iterator.set(token);
+                }
+                public void add(BaseToken token) {
+                    iterator.add(token);
+                }
+            };
+        }
+    }
+
+    /**
+     * Tag info is looked up once per tag token and reused by cleaning and serializing.
+     */
+    public void testTagInfoResolvedOncePerToken() throws Exception {
+        final int[] lookups = new int[1];
+        ITagInfoProvider countingProvider = new ITagInfoProvider() {
+            public TagInfo getTagInfo(String tagName) {
+                lookups[0]++;
+                return DefaultTagProvider.INSTANCE.getTagInfo(tagName);
+            }
+        };
+        HtmlCleaner countingCleaner = new HtmlCleaner(countingProvider);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("<p><b>x</b></p>");
+        }
+        TagNode node = countingCleaner.clean(content.toString());
+        String xml = new SimpleXmlSerializer(countingCleaner.getProperties()).getAsString(node);
+        assertEquals(1000, node.getElementsByName("b", true).length);
+        assertTrue(xml.indexOf("<p><b>x</b></p>") >= 0);
+        // one lookup for each of the 4000 start and end tags, plus a few for generated html, head and body
+        assertTrue("lookups: " + lookups[0], lookups[0] < 4100);
+    }
+
+    private File writeTempFile(byte[]... parts) throws IOException {
+        File file = File.createTempFile("htmlcleaner", ".html");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private String cleanReader(File file, String charset) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return serialize(cleaner.clean(new InputStreamReader(in, charset), new CleanTimeValues()));
+        } finally {
+            in.close();
+        }
+    }
+
+    private String serialize(TagNode node) throws IOException {
+        StringWriter writer = new StringWriter();
+        serializer.serialize(node, writer);
+        return writer.toString();
+    }
+
 	private void assertCleaned(String initial, String expected) throws IOException {
         TagNode node = cleaner.clean(initial);
         StringWriter writer = new StringWriter();
@@ -0,0 +1,97 @@
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the pull token reader.
+ */
+public class HtmlTokenReaderTest extends TestCase {
+
+    public void testTokens() throws IOException {
+        List<BaseToken> tokens = readAll("<!DOCTYPE html><p class=x>Hello <b>world</b><!-- note --></p>");
+
+        assertEquals(8, tokens.size());
+        assertTrue(tokens.get(0) instanceof DoctypeToken);
+        assertEquals("p", ((TagNode) tokens.get(1)).getName());
+        assertEquals("x", ((TagNode) tokens.get(1)).getAttributeByName("class"));
+        assertEquals("Hello ", ((ContentNode) tokens.get(2)).getContent());
+        assertEquals("b", ((TagNode) tokens.get(3)).getName());
+        assertEquals("world", ((ContentNode) tokens.get(4)).getContent());
+        assertEquals("b", ((EndTagToken) tokens.get(5)).getName());
+        assertEquals(" note ", ((CommentNode) tokens.get(6)).getContent());
+        assertEquals("p", ((EndTagToken) tokens.get(7)).getName());
+    }
+
+    public void testTokensAreNotBalanced() throws IOException {
+        List<BaseToken> tokens = readAll("<table><td>cell</b>");
+        assertEquals(4, tokens.size());
+        assertEquals("td", ((TagNode) tokens.get(1)).getName());
+        assertEquals("b", ((EndTagToken) tokens.get(3)).getName());
+    }
+
+    public void testScriptContent() throws IOException {
+        List<BaseToken> tokens = readAll("<script>if (a<b) {}</script>");
+        StringBuilder script = new StringBuilder();
+        for (BaseToken token : tokens.subList(1, tokens.size() - 1)) {
+            script.append(((ContentNode) token).getContent());
+        }
+        assertEquals("if (a<b) {}", script.toString());
+        assertEquals("script", ((EndTagToken) tokens.get(tokens.size() - 1)).getName());
+    }
+
+    public void testCharacterClasses() throws IOException {
+        List<BaseToken> tokens = readAll("<!DocType html><SCRIPT>a</Script\t><été\u000Bdata-x_1=v>x</été><1>");
+        assertTrue(tokens.get(0) instanceof DoctypeToken);
+        assertEquals("script", ((TagNode) tokens.get(1)).getName());
+        assertEquals("script", ((EndTagToken) tokens.get(3)).getName());
+        assertEquals("été", ((TagNode) tokens.get(4)).getName());
+        assertEquals("v", ((TagNode) tokens.get(4)).getAttributeByName("data-x_1"));
+        assertEquals("été", ((EndTagToken) tokens.get(6)).getName());
+        assertEquals("<1>", ((ContentNode) tokens.get(7)).getContent());
+    }
+
+    public void testEmptyContent() throws IOException {
+        HtmlTokenReader tokenReader = new HtmlTokenReader(new StringReader(""));
+        assertFalse(tokenReader.hasNext());
+        try {
+            tokenReader.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    public void testLongContent() throws IOException {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            html.append("<a href='link").append(i).append("'>text</a>");
+        }
+        HtmlTokenReader tokenReader = new HtmlTokenReader(new StringReader(html.toString()));
+        int links = 0;
+        while (tokenReader.hasNext()) {
+            BaseToken token = tokenReader.next();
+            if (token instanceof TagNode) {
+                assertEquals("link" + links, ((TagNode) token).getAttributeByName("href"));
+                links++;
+            }
+        }
+        assertEquals(10000, links);
+    }
+
+    private List<BaseToken> readAll(String html) throws IOException {
+        HtmlTokenReader tokenReader = new HtmlTokenReader(new StringReader(html));
+        List<BaseToken> tokens = new ArrayList<BaseToken>();
+        while (tokenReader.hasNext()) {
+            tokens.add(tokenReader.next());
+        }
+        tokenReader.close();
+        return tokens;
+    }
+
+}
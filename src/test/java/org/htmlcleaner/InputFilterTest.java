@@ -0,0 +1,61 @@
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the input filters applied by the tokenizer.
+ */
+public class InputFilterTest extends TestCase {
+
+    private CleanerProperties properties;
+    private HtmlCleaner cleaner;
+
+    @Override
+    protected void setUp() throws Exception {
+        properties = new CleanerProperties();
+        properties.setBufferSize(HtmlTokenizer.MIN_WORKING_BUFFER_SIZE);
+        cleaner = new HtmlCleaner(properties);
+    }
+
+    public void testStandardFilters() throws IOException {
+        StringBuilder html = new StringBuilder();
+        StringBuilder filtered = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            html.append("<p\r\nid='").append(i).append("'>a\u0000b\rc\r\n\r\n</p>\n");
+            filtered.append("<p\nid='").append(i).append("'>ab\nc\n\n</p>\n");
+        }
+        String expected = serialize(cleaner.clean(filtered.toString()));
+
+        properties.addInputFilter(StandardInputFilter.STRIP_NUL);
+        properties.addInputFilter(StandardInputFilter.NORMALIZE_LINE_BREAKS);
+        assertEquals(expected, serialize(cleaner.clean(html.toString())));
+        assertEquals(expected, serialize(cleaner.clean(new StringReader(html.toString()), new CleanTimeValues())));
+
+        char[] chars = html.toString().toCharArray();
+        assertEquals(expected, serialize(cleaner.clean(chars, 0, chars.length)));
+        assertEquals(html.toString(), new String(chars));
+    }
+
+    public void testCustomFilter() throws IOException {
+        properties.addInputFilter(new InputFilter() {
+            public int filter(char[] chars, int start, int end, char previous) {
+                for (int i = start; i < end; i++) {
+                    if (chars[i] == '\u00A0') {
+                        chars[i] = ' ';
+                    }
+                }
+                return end;
+            }
+        });
+        TagNode node = cleaner.clean("<p>a\u00A0b</p>").findElementByName("p", true);
+        assertEquals("a b", node.getText().toString());
+    }
+
+    private String serialize(TagNode node) throws IOException {
+        return new SimpleXmlSerializer(properties).getAsString(node);
+    }
+
+}
@@ -0,0 +1,88 @@
+package org.htmlcleaner;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the table of tag and attribute names.
+ */
+public class NameTableTest extends TestCase {
+
+    public void testKnownNames() {
+        NameTable table = new NameTable();
+        assertSame("div", get(table, "<div>", 1, 3));
+        assertSame("href", get(table, " href=", 1, 4));
+        assertSame("http-equiv", get(table, "http-equiv", 0, 10));
+    }
+
+    public void testNewNames() {
+        NameTable table = new NameTable();
+        String name = get(table, "<my-tag>", 1, 6);
+        assertEquals("my-tag", name);
+        assertSame(name, get(table, "</my-tag>", 2, 6));
+        assertEquals("my-ta", get(table, "my-tag", 0, 5));
+        assertEquals("", get(table, "", 0, 0));
+        assertNotSame(name, get(new NameTable(), "my-tag", 0, 6));
+    }
+
+    public void testFullTable() {
+        NameTable table = new NameTable();
+        for (int i = 0; i < 10000; i++) {
+            String name = "name" + i;
+            assertEquals(name, get(table, name, 0, name.length()));
+        }
+        assertSame("table", get(table, "table", 0, 5));
+        assertEquals("name9999", get(table, "name9999", 0, 8));
+    }
+
+    public void testCollidingNames() {
+        // all these names have the same hash code
+        NameTable table = new NameTable();
+        for (int i = 0; i < 256; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int bit = 0; bit < 8; bit++) {
+                name.append((i & (1 << bit)) != 0 ? "Aa" : "BB");
+            }
+            assertEquals(name.toString(), get(table, name.toString(), 0, name.length()));
+        }
+        assertSame("table", get(table, "table", 0, 5));
+    }
+
+    public void testSharedByThreads() throws InterruptedException {
+        final NameTable table = new NameTable();
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 10000;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        String name = "name" + (offset + i);
+                        if ( !name.equals(table.get(name.toCharArray(), 0, name.length())) ) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed[0]);
+        assertEquals("name99999", get(table, "name99999", 0, 9));
+    }
+
+    public void testCleanedNamesAreShared() {
+        HtmlCleaner cleaner = new HtmlCleaner();
+        TagNode first = cleaner.clean("<my-tag my-att='1'>text</my-tag>").findElementByName("my-tag", true);
+        TagNode second = cleaner.clean("<my-tag my-att='2'>text</my-tag>").findElementByName("my-tag", true);
+        assertSame(first.getName(), second.getName());
+        assertSame(first.getAttributes().keySet().iterator().next(), second.getAttributes().keySet().iterator().next());
+    }
+
+    private String get(NameTable table, String source, int start, int length) {
+        return table.get(source.toCharArray(), start, length);
+    }
+
+}
@@ -2,6 +2,8 @@ package org.htmlcleaner;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 
 import junit.framework.TestCase;
@@ -285,6 +287,23 @@ public class PropertiesTest extends TestCase {
         assertTrue(getXmlString(cleaner, properties).indexOf("<!-- comment with ** - hyphen -->") >= 0);
     }
 
+    public void testCommentHyphens() throws IOException {
+        HtmlCleaner cleaner = new HtmlCleaner();
+        CleanerProperties properties = cleaner.getProperties();
+        properties.setOmitComments(false);
+        properties.setHyphenReplacementInComment("$");
+        TagNode node = cleaner.clean("<p><!---a---b-c--></p>");
+        CommentNode comment = (CommentNode) node.findElementByName("p", true).getAllChildren().get(0);
+        assertEquals("$a$$-b-c", comment.getContent());
+
+        // skipped comments still count lines
+        properties.setOmitComments(true);
+        properties.setTrackPositions(true);
+        node = cleaner.clean("<p><!-- a\n-b\n-- --></p>\n<div>x</div>");
+        assertEquals(0, node.findElementByName("p", true).getAllChildren().size());
+        assertEquals(4, node.findElementByName("div", true).getRow());
+    }
+
     /**
      * @throws IOException
      */
@@ -349,6 +368,35 @@ public class PropertiesTest extends TestCase {
         assertTrue(getXmlString(cleaner, properties).indexOf("<mytag") < 0);
     }
 
+    public void testPrunedTagContentSkipped() throws Exception {
+        HtmlCleaner cleaner = new HtmlCleaner();
+        CleanerProperties properties = cleaner.getProperties();
+        properties.setOmitXmlDeclaration(true);
+        properties.setAddNewlineToHeadAndBody(false);
+        properties.setPruneTags("script,style,title");
+        final List<TagNode> completed = new ArrayList<TagNode>();
+        properties.setSubtreeCompletionListener(new SubtreeCompletionListener() {
+            public boolean subtreeCompleted(TagNode tagNode) {
+                completed.add(tagNode);
+                return false;
+            }
+        });
+
+        String html = "<html><head><title>t</title><script><!-- a < b --></script></head>" +
+                      "<body><div>x<style>p { color: red }</style>y<script>if (a < b) {}</script>z</div></body></html>";
+        TagNode node = cleaner.clean(html);
+        assertEquals("<html><head /><body><div>xyz</div></body></html>", new SimpleXmlSerializer(properties).getAsString(node));
+
+        int pruned = 0;
+        for (TagNode tagNode : completed) {
+            if (tagNode.isPruned()) {
+                assertTrue(tagNode.getName(), tagNode.getAllChildren().isEmpty());
+                pruned++;
+            }
+        }
+        assertEquals(4, pruned);
+    }
+
     public void testEmptyAttributesProperties() throws Exception {
         HtmlCleaner cleaner = new HtmlCleaner();
         CleanerProperties properties = cleaner.getProperties();
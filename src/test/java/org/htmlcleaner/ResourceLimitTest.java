@@ -0,0 +1,86 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the resource limits and limit policies.
+ */
+public class ResourceLimitTest extends TestCase {
+
+    private CleanerProperties properties;
+    private HtmlCleaner cleaner;
+
+    @Override
+    protected void setUp() throws Exception {
+        properties = new CleanerProperties();
+        properties.setOmitHtmlEnvelope(true);
+        properties.setOmitXmlDeclaration(true);
+        cleaner = new HtmlCleaner(properties);
+    }
+
+    public void testMaxDepth() throws IOException {
+        properties.setMaxDepth(2);
+        assertEquals("<div><div>abc</div>d</div>", clean("<div><div><div>a<div>b</div>c</div></div>d</div>"));
+
+        properties.setLimitPolicy(LimitPolicy.exception);
+        assertLimitReached("maxDepth", "<div><div><div>a</div></div></div>");
+        assertEquals("<div><div>a</div></div>", clean("<div><div>a</div></div>"));
+    }
+
+    public void testMaxTokens() throws IOException {
+        properties.setMaxTokens(4);
+        assertEquals("<p>a<b>b</b></p>", clean("<p>a<b>b</b>c</p>"));
+
+        properties.setLimitPolicy(LimitPolicy.exception);
+        assertLimitReached("maxTokens", "<p>a<b>b</b>c</p>");
+    }
+
+    public void testMaxAttributes() throws IOException {
+        properties.setMaxAttributes(2);
+        assertEquals("<p a=\"1\" b=\"2\">x</p>", clean("<p a=1 b=2 c=3 d=4>x</p>"));
+
+        properties.setLimitPolicy(LimitPolicy.exception);
+        assertLimitReached("maxAttributes", "<p a=1 b=2 c=3>x</p>");
+    }
+
+    public void testMaxAttributeLength() throws IOException {
+        properties.setMaxAttributeLength(3);
+        assertEquals("<p title=\"abc\" id=\"x\">x</p>", clean("<p title='abcdef' id=x>x</p>"));
+
+        properties.setLimitPolicy(LimitPolicy.exception);
+        assertLimitReached("maxAttributeLength", "<p title='abcdef'>x</p>");
+    }
+
+    public void testMaxTextLength() throws IOException {
+        properties.setMaxTextLength(5);
+        assertEquals("<p>abc</p><p>de</p>", clean("<p>abc</p><p>defgh</p><p>ijk</p>"));
+
+        properties.setLimitPolicy(LimitPolicy.exception);
+        assertLimitReached("maxTextLength", "<p>abc</p><!--defgh-->");
+    }
+
+    public void testHostileContent() throws IOException {
+        properties.setMaxDepth(100);
+        properties.setMaxTokens(1000);
+        properties.setMaxTextLength(10000);
+        TagNode node = cleaner.clean(new File("src/test/resources/oome_70.html"));
+        assertTrue(node.getAllElements(true).length < 1000);
+    }
+
+    private void assertLimitReached(String limit, String html) {
+        try {
+            cleaner.clean(html);
+            fail();
+        } catch (ResourceLimitException e) {
+            assertEquals(limit, e.getLimit());
+        }
+    }
+
+    private String clean(String html) throws IOException {
+        return new SimpleXmlSerializer(properties).getAsString(cleaner.clean(html));
+    }
+
+}
@@ -37,4 +37,35 @@ public class ScriptTest {
 
 	}
 
+	@Test
+	public void scriptContentIsSingleToken() throws IOException {
+	    StringBuilder code = new StringBuilder();
+	    for (int i = 0; i < 1000; i++) {
+	        code.append("if (a<b && c<d) { document.write('<p>' + i + '</p><!-- x -->'); }\n");
+	    }
+	    code.append("var end = '</scripts>';");
+	    HtmlCleaner cleaner = new HtmlCleaner();
+	    cleaner.getProperties().setBufferSize(100);
+	    TagNode script = cleaner.clean("<div><script>" + code + "</script ><p>after</p></div>").findElementByName("script", true);
+	    assertEquals(1, script.getAllChildren().size());
+	    assertEquals(code.toString(), ((ContentNode) script.getAllChildren().get(0)).getContent());
+	    assertEquals("p", ((TagNode) script.getParent().getChildTagList().get(1)).getName());
+	}
+
+	@Test
+	public void styleContentIsSingleToken() throws IOException {
+	    StringBuilder css = new StringBuilder();
+	    for (int i = 0; i < 1000; i++) {
+	        css.append("/* <p> " + i + " </p> */ ul > li.c").append(i).append(" { content: '<b>'; }\n");
+	    }
+	    css.append("/* </styles> */");
+	    HtmlCleaner cleaner = new HtmlCleaner();
+	    cleaner.getProperties().setBufferSize(100);
+	    TagNode html = cleaner.clean("<div><style>" + css + "</style ><p>after</p></div>");
+	    TagNode style = html.findElementByName("style", true);
+	    assertEquals(1, style.getAllChildren().size());
+	    assertEquals(css.toString(), ((ContentNode) style.getAllChildren().get(0)).getContent());
+	    assertEquals("after", html.findElementByName("p", true).getText().toString());
+	}
+
 }
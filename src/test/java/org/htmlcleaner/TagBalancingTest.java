@@ -6,6 +6,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 
 import junit.framework.TestCase;
 
@@ -67,6 +70,43 @@ public class TagBalancingTest extends TestCase {
         assertHtml(new File("src/test/resources/test7.html"), "/head/noscript/meta/@http-equiv", "refresh");
     }
 
+    public void testFatalTagBarrier() throws IOException {
+        // end tag doesn't close the cell outside of the nested table
+        assertHtml(
+            "<table><tr><td>a<table><caption>b</td>c</caption></table>d</td></tr></table>",
+            "<html><head /><body><table><tbody><tr><td>a<table><caption>b c</caption></table>d</td></tr></tbody></table></body></html>"
+        );
+        assertHtml(
+            "<ul><li>a<ul><li>b</ul></li>c</ul>",
+            "<html><head /><body><ul><li>a<ul><li>b</li></ul></li>c</ul></body></html>"
+        );
+    }
+
+    public void testChangedTagRules() throws IOException {
+        DefaultTagProvider provider = new DefaultTagProvider();
+        HtmlCleaner cleaner = new HtmlCleaner(provider);
+        String siblings = "<html>\n<head />\n<body><p>a</p><p>b</p></body></html>";
+        String nested = "<html>\n<head />\n<body><p>a\n<p>b</p></p></body></html>";
+        TagInfo p = provider.getTagInfo("p");
+        assertEquals(siblings, cleanCompact(cleaner, "<p>a<p>b"));
+
+        p.getMustCloseTags().remove("p");
+        assertEquals(nested, cleanCompact(cleaner, "<p>a<p>b"));
+
+        p.getMustCloseTags().add("p");
+        assertEquals(siblings, cleanCompact(cleaner, "<p>a<p>b"));
+
+        for (Iterator<String> it = p.getMustCloseTags().iterator(); it.hasNext();) {
+            if ("p".equals(it.next())) {
+                it.remove();
+            }
+        }
+        assertEquals(nested, cleanCompact(cleaner, "<p>a<p>b"));
+
+        p.setMustCloseTags(new HashSet<String>(Arrays.asList("p")));
+        assertEquals(siblings, cleanCompact(cleaner, "<p>a<p>b"));
+    }
+
     public void testTagProviders() throws IOException {
         HtmlCleaner cleaner1 = new HtmlCleaner();
         HtmlCleaner cleaner2 = new HtmlCleaner(new ConfigFileTagProvider(new File("example.xml")));
@@ -115,6 +155,11 @@ public class TagBalancingTest extends TestCase {
         }
     }
 
+    private String cleanCompact(HtmlCleaner cleaner, String html) throws IOException {
+        cleaner.getProperties().setOmitXmlDeclaration(true);
+        return new CompactXmlSerializer(cleaner.getProperties()).getAsString(cleaner.clean(html));
+    }
+
     private void assertHtml(String html, String xml) throws IOException {
         HtmlCleaner cleaner = new HtmlCleaner();
         CleanerProperties props = cleaner.getProperties();
@@ -4,6 +4,8 @@ import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
 
 /**
  * Testing node manipulation after cleaning.
@@ -25,6 +27,65 @@ public class TagManipulationTest extends TestCase {
                 "<tbody><tr><td>row1</td><td>row2</td><td>row3</td></tr></tbody>");
     }
 
+    public void testCleanFragment() throws IOException {
+        cleaner.getProperties().setPruneTags("script");
+        TagNode node = cleaner.clean("<html><head><title>x</title></head><body><table><tr><td>1</td></tr></table><ul><li>q</li></ul></body></html>");
+        TagNode table = node.findElementByName("table", true);
+        TagNode li = node.findElementByName("li", true);
+
+        List<BaseToken> rows = cleaner.cleanFragment(table, new StringReader("<td>row1<td>row2"));
+        assertEquals(1, rows.size());
+        TagNode tbody = (TagNode) rows.get(0);
+        assertEquals("tbody", tbody.getName());
+        assertNull(tbody.getParent());
+        assertEquals(2, tbody.getElementsByName("td", true).length);
+
+        // fragment is not moved to the head
+        List<BaseToken> body = cleaner.cleanFragment(node.findElementByName("body", true), new StringReader("<title>t</title><p>x"));
+        assertEquals(2, body.size());
+        assertEquals("title", ((TagNode) body.get(0)).getName());
+
+        // content which closes the context is dropped, pruned tags are removed
+        List<BaseToken> items = cleaner.cleanFragment(li, new StringReader("a<script>s</script>b<li>c"));
+        assertEquals(2, items.size());
+        assertEquals("a", items.get(0).toString());
+        assertEquals("b", items.get(1).toString());
+
+        // context is not changed
+        assertEquals("1", table.getText().toString());
+        assertEquals("q", li.getText().toString());
+    }
+
+    public void testInnerHtmlClosingContext() throws IOException {
+        TagNode node = cleaner.clean("<table><tr><td>1</td></tr></table><p>q</p>");
+        TagNode td = node.findElementByName("td", true);
+        TagNode p = node.findElementByName("p", true);
+
+        // content which would close the node itself is dropped
+        cleaner.setInnerHtml(td, "<td>a</td><p>b</p>");
+        assertEquals("", cleaner.getInnerHtml(td));
+        cleaner.setInnerHtml(p, "x<p>y</p>z");
+        assertEquals("x", cleaner.getInnerHtml(p));
+        assertEquals(0, p.getElementsByName("p", true).length);
+    }
+
+    public void testInnerHtmlOfNodeClosingItsParent() throws IOException {
+        // div placed in p by hand would close the p if they were cleaned together
+        TagNode node = cleaner.clean("<ul><li><p>text</p></li></ul>");
+        TagNode p = node.findElementByName("p", true);
+        TagNode div = new TagNode("div");
+        p.addChild(div);
+
+        cleaner.setInnerHtml(div, "<b>bold</b> text");
+        assertEquals("<b>bold</b> text", cleaner.getInnerHtml(div));
+        assertSame(div, div.findElementByName("b", false).getParent());
+        assertEquals(0, div.getElementsByName("div", true).length);
+
+        List<BaseToken> items = cleaner.cleanFragment(div, new StringReader("<li>item"));
+        assertEquals(1, items.size());
+        assertEquals("li", ((TagNode) items.get(0)).getName());
+    }
+
     public void testManipulation() throws XPatherException, IOException {
         TagNode node9 = cleaner.clean(new File("src/test/resources/test9.html"));
         TagNode pNode = (TagNode) node9.evaluateXPath("//p[1]")[0];
@@ -1,5 +1,11 @@
 package org.htmlcleaner;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
 import junit.framework.TestCase;
 
 /**
@@ -40,4 +46,24 @@ public class UtilsTest extends TestCase {
         res = Utils.escapeXml("&#x27;&#xa1;", true, false, true, false, false, false);
         assertEquals("&apos;¡", res);   
     }
+
+    public void testUnmap() throws Exception {
+        File file = File.createTempFile("htmlcleaner", ".html");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[4096]);
+        } finally {
+            out.close();
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            in.close();
+        }
+        assertTrue(Utils.unmap(buffer));
+        assertTrue(file.delete());
+    }
 }